@@ -0,0 +1,224 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.ByteBuffer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.lemsml.jlems.api.LEMSBuildException;
+import org.lemsml.jlems.api.LEMSDocumentReader;
+import org.lemsml.jlems.api.LEMSExecutionException;
+import org.lemsml.jlems.api.LEMSResultsContainer;
+import org.lemsml.jlems.api.LEMSSimulator;
+import org.lemsml.jlems.api.interfaces.ILEMSDocument;
+import org.lemsml.jlems.api.interfaces.ILEMSResultsContainer;
+import org.lemsml.jlems.api.interfaces.ILEMSRunConfiguration;
+import org.lemsml.jlems.api.interfaces.ILEMSSimulator;
+import org.lemsml.jlems.api.interfaces.ILEMSStateInstance;
+import org.lemsml.jlems.core.expression.ParseError;
+import org.lemsml.jlems.core.sim.ContentError;
+
+/**
+ * Runs a LEMS file to the end of its run configuration and writes the recorded states to a file, without any Geppetto runtime tree. The model is built
+ * as {@link JLEMSSimulatorService#initialize} builds it.
+ * 
+ * Usage: BatchRunner lemsFile outputFile [binary|columns]
+ */
+public class BatchRunner
+{
+
+	private static Log _logger = LogFactory.getLog(BatchRunner.class);
+
+	public enum OutputFormat
+	{
+		/**
+		 * The number of states, their paths, then one length prefixed {@link FrameEncoder} frame per step
+		 */
+		BINARY,
+		/**
+		 * Tab separated text, a header with the paths then one line per step starting with the time
+		 */
+		COLUMNS
+	}
+
+	private OutputFormat _format = OutputFormat.BINARY;
+	private boolean _delta = true;
+
+	/**
+	 * @param format
+	 * @param delta
+	 *            delta encode the binary frames
+	 */
+	public BatchRunner(OutputFormat format, boolean delta)
+	{
+		_format = format;
+		_delta = delta;
+	}
+
+	/**
+	 * @param lemsFile
+	 * @param output
+	 * @return the number of steps run
+	 * @throws IOException
+	 * @throws ContentError
+	 * @throws ParseError
+	 * @throws LEMSBuildException
+	 * @throws LEMSExecutionException
+	 */
+	public long run(File lemsFile, File output) throws IOException, ContentError, ParseError, LEMSBuildException, LEMSExecutionException
+	{
+		return run(lemsFile.toURI().toURL(), output);
+	}
+
+	/**
+	 * @param lemsSource
+	 *            the LEMS model, its includes are resolved against it
+	 * @param output
+	 * @return the number of steps run
+	 * @throws IOException
+	 * @throws ContentError
+	 * @throws ParseError
+	 * @throws LEMSBuildException
+	 * @throws LEMSExecutionException
+	 */
+	public long run(URL lemsSource, File output) throws IOException, ContentError, ParseError, LEMSBuildException, LEMSExecutionException
+	{
+		ILEMSDocument lemsDocument = new LEMSDocumentReader().readModel(lemsSource);
+		LEMSModelBuilder builder = new LEMSModelBuilder();
+		builder.build(lemsDocument);
+		ILEMSRunConfiguration runConfig = builder.getRunConfig();
+
+		ILEMSSimulator simulator = new LEMSSimulator();
+		for(ILEMSStateInstance instance : builder.getStateInstances())
+		{
+			simulator.initialize(instance, runConfig);
+		}
+		RecordedStates recordedStates = new RecordedStates(runConfig);
+		int[] indices = new int[recordedStates.size()];
+		for(int i = 0; i < indices.length; i++)
+		{
+			indices[i] = i;
+		}
+		double[] values = new double[indices.length];
+
+		double timestep = runConfig.getTimestep();
+		long steps = Math.round(runConfig.getRuntime() / timestep);
+		long start = System.nanoTime();
+		if(_format == OutputFormat.BINARY)
+		{
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output), 1 << 16));
+			try
+			{
+				out.writeInt(recordedStates.size());
+				for(int i = 0; i < recordedStates.size(); i++)
+				{
+					out.writeUTF(recordedStates.getPath(i));
+				}
+				FrameEncoder encoder = new FrameEncoder(false, _delta, 1000);
+				for(long step = 1; step <= steps; step++)
+				{
+					ILEMSResultsContainer results = new LEMSResultsContainer();
+					simulator.advance(results);
+					recordedStates.read(results, indices, values);
+					ByteBuffer frame = encoder.encode(step, step * timestep, values);
+					out.writeInt(frame.remaining());
+					out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+				}
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+		else
+		{
+			Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), "UTF-8"), 1 << 16);
+			try
+			{
+				out.write("t");
+				for(int i = 0; i < recordedStates.size(); i++)
+				{
+					out.write('\t');
+					out.write(recordedStates.getPath(i));
+				}
+				out.write('\n');
+				for(long step = 1; step <= steps; step++)
+				{
+					ILEMSResultsContainer results = new LEMSResultsContainer();
+					simulator.advance(results);
+					recordedStates.read(results, indices, values);
+					out.write(Double.toString(step * timestep));
+					for(double value : values)
+					{
+						out.write('\t');
+						out.write(Double.toString(value));
+					}
+					out.write('\n');
+				}
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		_logger.info("Batch run of " + lemsSource + ": " + steps + " steps in " + seconds + "s, " + (long) (steps / seconds) + " steps/s");
+		return steps;
+	}
+
+	/**
+	 * @param args
+	 *            lemsFile outputFile [binary|columns]
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		if(args.length < 2)
+		{
+			System.err.println("Usage: BatchRunner lemsFile outputFile [binary|columns]");
+			System.exit(1);
+		}
+		OutputFormat format = args.length > 2 ? OutputFormat.valueOf(args[2].toUpperCase()) : OutputFormat.BINARY;
+		new BatchRunner(format, true).run(new File(args[0]), new File(args[1]));
+	}
+}
@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how many steps a call to simulate advances before the tree is published, and measures the achieved throughput.
+ */
+public class ExecutionPacer
+{
+
+	public enum ExecutionMode
+	{
+		/**
+		 * One step per call
+		 */
+		STEP,
+		/**
+		 * Steps until the wall clock budget of the call is used up
+		 */
+		BUDGETED,
+		/**
+		 * Steps so that the simulated time follows the wall clock time times a ratio, waiting when ahead
+		 */
+		PACED
+	}
+
+	private ExecutionMode _mode = ExecutionMode.STEP;
+	private long _budgetNanos = TimeUnit.MILLISECONDS.toNanos(20);
+	private double _ratio = 1;
+
+	private long _measureStart = -1;
+	private long _start;
+	private double _startTime;
+	private long _callStart;
+	private long _steps = 0;
+	private double _simulatedTime = 0;
+	private long _busyNanos = 0;
+
+	/**
+	 * @return
+	 */
+	public ExecutionMode getMode()
+	{
+		return _mode;
+	}
+
+	/**
+	 * @param mode
+	 * @param budgetMillis
+	 *            the wall clock budget of a call in the BUDGETED mode, the longest a call keeps stepping to catch up in the PACED mode
+	 * @param ratio
+	 *            simulated seconds per real second in the PACED mode
+	 */
+	public void setMode(ExecutionMode mode, long budgetMillis, double ratio)
+	{
+		if(ratio <= 0)
+		{
+			throw new IllegalArgumentException("The ratio of simulated to real time has to be positive");
+		}
+		_mode = mode;
+		_budgetNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, budgetMillis));
+		_ratio = ratio;
+		reset();
+	}
+
+	/**
+	 * Restarts the pacing and the throughput measurement
+	 */
+	public void reset()
+	{
+		_measureStart = -1;
+		_steps = 0;
+		_simulatedTime = 0;
+		_busyNanos = 0;
+	}
+
+	/**
+	 * Called at the beginning of a call to simulate, in the PACED mode sleeps until the next step is due
+	 * 
+	 * @param time
+	 *            the simulated time
+	 * @param timestep
+	 * @throws InterruptedException
+	 */
+	public void startCall(double time, double timestep) throws InterruptedException
+	{
+		long now = nanoTime();
+		if(_measureStart < 0)
+		{
+			_measureStart = now;
+			_start = now;
+			_startTime = time;
+		}
+		if(_mode == ExecutionMode.PACED)
+		{
+			long deadline = deadlineOf(time + timestep);
+			if(deadline > now)
+			{
+				sleep(deadline - now);
+			}
+			else if(now - deadline > _budgetNanos)
+			{
+				// too far behind, catching up would only produce a burst: restart the schedule from the current step
+				_start = now;
+				_startTime = time;
+			}
+		}
+		_callStart = nanoTime();
+	}
+
+	/**
+	 * Called after every step
+	 * 
+	 * @param time
+	 *            the simulated time after the step
+	 * @param timestep
+	 * @return true if the call should advance another step before publishing
+	 */
+	public boolean stepDone(double time, double timestep)
+	{
+		_steps++;
+		_simulatedTime += timestep;
+		long now = nanoTime();
+		switch(_mode)
+		{
+			case BUDGETED:
+				return now - _callStart < _budgetNanos;
+			case PACED:
+				return now - _callStart < _budgetNanos && deadlineOf(time + timestep) <= now;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Called when a call to simulate returns
+	 */
+	public void endCall()
+	{
+		_busyNanos += nanoTime() - _callStart;
+	}
+
+	/**
+	 * @return the wall clock time in nanoseconds
+	 */
+	protected long nanoTime()
+	{
+		return System.nanoTime();
+	}
+
+	/**
+	 * @param nanos
+	 * @throws InterruptedException
+	 */
+	protected void sleep(long nanos) throws InterruptedException
+	{
+		TimeUnit.NANOSECONDS.sleep(nanos);
+	}
+
+	private long deadlineOf(double time)
+	{
+		return _start + (long) ((time - _startTime) / _ratio * 1e9);
+	}
+
+	/**
+	 * @return the steps advanced since the last reset
+	 */
+	public long getSteps()
+	{
+		return _steps;
+	}
+
+	/**
+	 * @return the steps per second of wall clock time spent in simulate
+	 */
+	public double getStepsPerSecond()
+	{
+		return _busyNanos == 0 ? 0 : _steps * 1e9 / _busyNanos;
+	}
+
+	/**
+	 * @return the simulated seconds per real second since the last reset, pauses between calls included
+	 */
+	public double getRealTimeRatio()
+	{
+		long elapsed = _measureStart < 0 ? 0 : nanoTime() - _measureStart;
+		return elapsed == 0 ? 0 : _simulatedTime * 1e9 / elapsed;
+	}
+}
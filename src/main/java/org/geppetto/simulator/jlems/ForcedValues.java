@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.geppetto.core.common.GeppettoExecutionException;
+
+/**
+ * The values forced on states of the model, each one over a range of steps. A clamp holds a value over many steps, an injection sets it at a single
+ * step. The forces are kept in parallel arrays sorted by first step, applying the forces of a step only scans the forces that have started. The forces
+ * can be changed from another thread than the one stepping.
+ */
+public class ForcedValues
+{
+
+	private Map<String, StateHandle> _handles = new HashMap<String, StateHandle>();
+	private StateHandle[] _forcedHandles = new StateHandle[0];
+	private double[] _values = new double[0];
+	private long[] _from = new long[0];
+	private long[] _to = new long[0];
+	private int _size = 0;
+
+	/**
+	 * @param handle
+	 * @param value
+	 * @param from
+	 *            the first step the value is set at
+	 * @param to
+	 *            the last step the value is set at, Long.MAX_VALUE to clamp until the force is released
+	 */
+	public synchronized void add(StateHandle handle, double value, long from, long to)
+	{
+		if(_size == _values.length)
+		{
+			int capacity = Math.max(8, _size * 2);
+			_forcedHandles = Arrays.copyOf(_forcedHandles, capacity);
+			_values = Arrays.copyOf(_values, capacity);
+			_from = Arrays.copyOf(_from, capacity);
+			_to = Arrays.copyOf(_to, capacity);
+		}
+		// insertion keeps the arrays sorted by first step
+		int i = _size;
+		while(i > 0 && _from[i - 1] > from)
+		{
+			_forcedHandles[i] = _forcedHandles[i - 1];
+			_values[i] = _values[i - 1];
+			_from[i] = _from[i - 1];
+			_to[i] = _to[i - 1];
+			i--;
+		}
+		_forcedHandles[i] = handle;
+		_values[i] = value;
+		_from[i] = from;
+		_to[i] = to;
+		_size++;
+		_handles.put(handle.getPath(), handle);
+	}
+
+	/**
+	 * Stops forcing a state
+	 * 
+	 * @param path
+	 *            the LEMS path of the state
+	 */
+	public synchronized void release(String path)
+	{
+		int kept = 0;
+		for(int i = 0; i < _size; i++)
+		{
+			if(!_forcedHandles[i].getPath().equals(path))
+			{
+				_forcedHandles[kept] = _forcedHandles[i];
+				_values[kept] = _values[i];
+				_from[kept] = _from[i];
+				_to[kept] = _to[i];
+				kept++;
+			}
+		}
+		Arrays.fill(_forcedHandles, kept, _size, null);
+		_size = kept;
+		_handles.remove(path);
+	}
+
+	/**
+	 * Resolves the handles of the forced states on the state instances of a rebuilt model, to be swapped in by {@link #rebind(Map)}. Nothing changes if
+	 * a state can't be resolved.
+	 * 
+	 * @param resolver
+	 * @return the new handles by path
+	 * @throws GeppettoExecutionException
+	 */
+	public synchronized Map<String, StateHandle> resolve(StateHandleResolver resolver) throws GeppettoExecutionException
+	{
+		Map<String, StateHandle> handles = new HashMap<String, StateHandle>();
+		for(String path : _handles.keySet())
+		{
+			handles.put(path, resolver.resolve(path));
+		}
+		return handles;
+	}
+
+	/**
+	 * Replaces the handles of all the forced states at once, e.g. when the model was rebuilt and the forces have to apply to the new state instances
+	 * 
+	 * @param handles
+	 *            returned by {@link #resolve(StateHandleResolver)}, no force can be added in between
+	 */
+	public synchronized void rebind(Map<String, StateHandle> handles)
+	{
+		for(Map.Entry<String, StateHandle> handle : _handles.entrySet())
+		{
+			handle.setValue(handles.get(handle.getKey()));
+		}
+		for(int i = 0; i < _size; i++)
+		{
+			_forcedHandles[i] = _handles.get(_forcedHandles[i].getPath());
+		}
+	}
+
+	/**
+	 * Removes all the forces
+	 */
+	public synchronized void clear()
+	{
+		Arrays.fill(_forcedHandles, 0, _size, null);
+		_size = 0;
+		_handles.clear();
+	}
+
+	/**
+	 * Sets the values forced at a step and drops the forces that are over
+	 * 
+	 * @param step
+	 */
+	public synchronized void apply(long step)
+	{
+		boolean expired = false;
+		for(int i = 0; i < _size && _from[i] <= step; i++)
+		{
+			if(_to[i] >= step)
+			{
+				_forcedHandles[i].set(_values[i]);
+			}
+			expired |= _to[i] <= step;
+		}
+		if(expired)
+		{
+			removeExpired(step);
+		}
+	}
+
+	private void removeExpired(long step)
+	{
+		int kept = 0;
+		for(int i = 0; i < _size; i++)
+		{
+			if(_to[i] > step)
+			{
+				_forcedHandles[kept] = _forcedHandles[i];
+				_values[kept] = _values[i];
+				_from[kept] = _from[i];
+				_to[kept] = _to[i];
+				kept++;
+			}
+		}
+		Arrays.fill(_forcedHandles, kept, _size, null);
+		_size = kept;
+	}
+
+	/**
+	 * @return the number of forces not over yet
+	 */
+	public synchronized int size()
+	{
+		return _size;
+	}
+
+	/**
+	 * @param path
+	 *            the LEMS path of a state
+	 * @return the handle already resolved for the state, null if there is none
+	 */
+	public synchronized StateHandle getHandle(String path)
+	{
+		return _handles.get(path);
+	}
+}
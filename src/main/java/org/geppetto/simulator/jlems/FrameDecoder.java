@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the frames written by a {@link FrameEncoder}. Delta frames are applied to the values of the previous frame, so the frames have to be decoded in
+ * order starting from a key frame.
+ */
+public class FrameDecoder
+{
+
+	private long[] _previous = null;
+	private long _step;
+	private double _time;
+	private double[] _values = new double[0];
+
+	/**
+	 * @param frame
+	 * @throws IllegalStateException
+	 *             if a delta frame is read before a key frame
+	 */
+	public void decode(ByteBuffer frame)
+	{
+		byte flags = frame.get();
+		boolean floats = (flags & FrameEncoder.FLOATS) != 0;
+		boolean delta = (flags & FrameEncoder.DELTA) != 0;
+		_step = frame.getLong();
+		_time = frame.getDouble();
+		int count = frame.getInt();
+		if(delta && (_previous == null || _previous.length != count))
+		{
+			throw new IllegalStateException("Delta frame " + _step + " read before a key frame");
+		}
+		if(_previous == null || _previous.length != count)
+		{
+			_previous = new long[count];
+			_values = new double[count];
+		}
+		for(int i = 0; i < count; i++)
+		{
+			long bits;
+			if(delta)
+			{
+				bits = _previous[i] ^ getXor(frame);
+			}
+			else
+			{
+				bits = floats ? frame.getInt() & 0xFFFFFFFFL : frame.getLong();
+			}
+			_previous[i] = bits;
+			_values[i] = floats ? Float.intBitsToFloat((int) bits) : Double.longBitsToDouble(bits);
+		}
+	}
+
+	private static long getXor(ByteBuffer buffer)
+	{
+		int control = buffer.get() & 0xFF;
+		int trailing = control >>> 4;
+		int meaningful = control & 0x0F;
+		long xor = 0;
+		for(int b = 0; b < meaningful; b++)
+		{
+			xor = (xor << 8) | (buffer.get() & 0xFF);
+		}
+		return xor << (trailing * 8);
+	}
+
+	/**
+	 * @return the step of the last decoded frame
+	 */
+	public long getStep()
+	{
+		return _step;
+	}
+
+	/**
+	 * @return the time of the last decoded frame
+	 */
+	public double getTime()
+	{
+		return _time;
+	}
+
+	/**
+	 * @return the values of the last decoded frame, the array is reused
+	 */
+	public double[] getValues()
+	{
+		return _values;
+	}
+}
@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Packs the watched values of a step in a binary frame: a flags byte, the step index (long), the time (double), the number of values (int) and the values.
+ * In a key frame the values are written as floats or doubles. In a delta frame every value is the XOR of its bits with the bits of the same value in the
+ * previous frame, written as a control byte followed by the bytes between the leading and the trailing zero bytes of the XOR: the high nibble of the
+ * control byte is the number of trailing zero bytes, the low nibble the number of bytes that follow. An unchanged value takes one byte and a sign change
+ * two. A small change reaches down to the last mantissa bits, so it takes about three bytes for a float and up to seven for a double. Decoding is exact.
+ * A delta frame that would not be smaller than the key frame is written as a key frame. The buffer is reused, a frame has to be consumed before the next
+ * one is encoded.
+ */
+public class FrameEncoder
+{
+
+	public static final byte FLOATS = 1;
+	public static final byte DELTA = 2;
+
+	private static final int HEADER_SIZE = 1 + 8 + 8 + 4;
+
+	private boolean _floats;
+	private boolean _delta;
+	private int _keyFrameInterval;
+
+	private ByteBuffer _buffer = ByteBuffer.allocate(HEADER_SIZE);
+	private long[] _previous = null;
+	private long[] _bits = null;
+	private int _sinceKeyFrame = 0;
+
+	/**
+	 * @param floats
+	 *            true to write the values as floats, false for doubles
+	 * @param delta
+	 *            true to write delta frames between key frames
+	 * @param keyFrameInterval
+	 *            a key frame is written every keyFrameInterval frames so that a client can start decoding mid stream
+	 */
+	public FrameEncoder(boolean floats, boolean delta, int keyFrameInterval)
+	{
+		_floats = floats;
+		_delta = delta;
+		_keyFrameInterval = Math.max(1, keyFrameInterval);
+	}
+
+	/**
+	 * The next frame is a key frame
+	 */
+	public void reset()
+	{
+		_previous = null;
+	}
+
+	/**
+	 * @param step
+	 * @param time
+	 * @param values
+	 * @return the frame, ready to be read
+	 */
+	public ByteBuffer encode(long step, double time, double[] values)
+	{
+		int width = _floats ? 4 : 8;
+		boolean keyFrame = !_delta || _previous == null || _previous.length != values.length || _sinceKeyFrame >= _keyFrameInterval;
+		if(_bits == null || _bits.length != values.length)
+		{
+			_bits = new long[values.length];
+		}
+		int deltaSize = 0;
+		for(int i = 0; i < values.length; i++)
+		{
+			// float bits are kept unsigned so that the XOR of two floats has 32 leading zeros
+			_bits[i] = _floats ? Float.floatToRawIntBits((float) values[i]) & 0xFFFFFFFFL : Double.doubleToRawLongBits(values[i]);
+			if(!keyFrame)
+			{
+				deltaSize += xorSize(_bits[i] ^ _previous[i], width);
+			}
+		}
+		keyFrame = keyFrame || deltaSize >= values.length * width;
+		int capacity = HEADER_SIZE + (keyFrame ? values.length * width : deltaSize);
+		if(_buffer.capacity() < capacity)
+		{
+			_buffer = ByteBuffer.allocate(capacity);
+		}
+		_buffer.clear();
+		byte flags = 0;
+		if(_floats)
+		{
+			flags |= FLOATS;
+		}
+		if(!keyFrame)
+		{
+			flags |= DELTA;
+		}
+		_buffer.put(flags);
+		_buffer.putLong(step);
+		_buffer.putDouble(time);
+		_buffer.putInt(values.length);
+		for(int i = 0; i < values.length; i++)
+		{
+			if(keyFrame)
+			{
+				if(_floats)
+				{
+					_buffer.putInt((int) _bits[i]);
+				}
+				else
+				{
+					_buffer.putLong(_bits[i]);
+				}
+			}
+			else
+			{
+				putXor(_buffer, _bits[i] ^ _previous[i], width);
+			}
+		}
+		// the bits of this frame are the previous bits of the next one
+		long[] previous = _previous;
+		_previous = _bits;
+		_bits = previous;
+		_sinceKeyFrame = keyFrame ? 1 : _sinceKeyFrame + 1;
+		_buffer.flip();
+		return _buffer;
+	}
+
+	/**
+	 * @param xor
+	 * @param width
+	 *            the number of bytes of a value
+	 * @return the number of bytes written by {@link #putXor(ByteBuffer, long, int)}
+	 */
+	private static int xorSize(long xor, int width)
+	{
+		if(xor == 0)
+		{
+			return 1;
+		}
+		int leading = (Long.numberOfLeadingZeros(xor) - (8 - width) * 8) / 8;
+		int trailing = Long.numberOfTrailingZeros(xor) / 8;
+		return 1 + width - leading - trailing;
+	}
+
+	private static void putXor(ByteBuffer buffer, long xor, int width)
+	{
+		if(xor == 0)
+		{
+			buffer.put((byte) 0);
+			return;
+		}
+		int leading = (Long.numberOfLeadingZeros(xor) - (8 - width) * 8) / 8;
+		int trailing = Long.numberOfTrailingZeros(xor) / 8;
+		int meaningful = width - leading - trailing;
+		buffer.put((byte) ((trailing << 4) | meaningful));
+		for(int b = meaningful - 1; b >= 0; b--)
+		{
+			buffer.put((byte) (xor >>> ((trailing + b) * 8)));
+		}
+	}
+}
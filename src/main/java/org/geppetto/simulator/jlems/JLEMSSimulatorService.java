@@ -32,34 +32,35 @@
  *******************************************************************************/
 package org.geppetto.simulator.jlems;
 
+import java.io.IOException;
 import java.net.URL;
-import java.text.DecimalFormat;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import javax.measure.quantity.Quantity;
-import javax.measure.unit.SI;
 import javax.measure.unit.Unit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.geppetto.core.beans.SimulatorConfig;
-import org.geppetto.core.common.ArrayUtils;
 import org.geppetto.core.common.GeppettoExecutionException;
 import org.geppetto.core.common.GeppettoInitializationException;
-import org.geppetto.core.data.model.AVariable;
-import org.geppetto.core.data.model.ArrayVariable;
-import org.geppetto.core.data.model.SimpleType;
-import org.geppetto.core.data.model.SimpleType.Type;
-import org.geppetto.core.data.model.StructuredType;
+import org.geppetto.core.data.model.VariableList;
 import org.geppetto.core.model.IModel;
 import org.geppetto.core.model.ModelInterpreterException;
 import org.geppetto.core.model.ModelWrapper;
-import org.geppetto.core.model.data.DataModelFactory;
 import org.geppetto.core.model.quantities.PhysicalQuantity;
 import org.geppetto.core.model.runtime.ACompositeNode;
 import org.geppetto.core.model.runtime.ANode;
@@ -74,20 +75,17 @@ import org.geppetto.core.simulation.IRunConfiguration;
 import org.geppetto.core.simulation.ISimulatorCallbackListener;
 import org.geppetto.core.simulator.ASimulator;
 import org.geppetto.core.utilities.VariablePathSerializer;
+import org.geppetto.simulator.jlems.ExecutionPacer.ExecutionMode;
+import org.geppetto.simulator.jlems.LEMSUnitResolver.ResolvedUnit;
+import org.geppetto.simulator.jlems.MemoryBudget.OverflowPolicy;
+import org.geppetto.simulator.jlems.MorphologySimplifier.LevelOfDetail;
+import org.geppetto.simulator.jlems.PopulateVisualTreeVisitor.ChunkListener;
 import org.lemsml.jlems.api.ALEMSValue;
-import org.lemsml.jlems.api.LEMSBuildConfiguration;
 import org.lemsml.jlems.api.LEMSBuildException;
-import org.lemsml.jlems.api.LEMSBuildOptions;
-import org.lemsml.jlems.api.LEMSBuildOptionsEnum;
-import org.lemsml.jlems.api.LEMSBuilder;
-import org.lemsml.jlems.api.LEMSDocumentReader;
 import org.lemsml.jlems.api.LEMSDoubleValue;
 import org.lemsml.jlems.api.LEMSExecutionException;
 import org.lemsml.jlems.api.LEMSResultsContainer;
 import org.lemsml.jlems.api.LEMSSimulator;
-import org.lemsml.jlems.api.interfaces.ILEMSBuildConfiguration;
-import org.lemsml.jlems.api.interfaces.ILEMSBuildOptions;
-import org.lemsml.jlems.api.interfaces.ILEMSBuilder;
 import org.lemsml.jlems.api.interfaces.ILEMSDocument;
 import org.lemsml.jlems.api.interfaces.ILEMSResultsContainer;
 import org.lemsml.jlems.api.interfaces.ILEMSRunConfiguration;
@@ -110,19 +108,53 @@ public class JLEMSSimulatorService extends ASimulator
 {
 
 	private static Log _logger = LogFactory.getLog(JLEMSSimulatorService.class);
+	// replaced by rebuild, guarded by _stepLock while the model is stepped
 	private ILEMSSimulator _simulator = null;
+	// held for every step and while a rebuild swaps the simulator, so that the model is only replaced between two steps
+	private final Object _stepLock = new Object();
 	private ILEMSRunConfiguration _runConfig;
-	private DecimalFormat _df = new DecimalFormat("0.E0");
+	private LEMSUnitResolver _unitResolver = new LEMSUnitResolver();
 
 	@Autowired
 	private SimulatorConfig jlemsSimulatorConfig;
 
 	private static final String NEUROML_ID = "neuroml";
 	private static final String URL_ID = "url";
+	private static final int HISTORY_BLOCK_SIZE = 4096;
+	private static final int HISTORY_CACHED_BLOCKS = 64;
 
 	private PopulateVisualTreeVisitor _populateVisualTree = new PopulateVisualTreeVisitor();
 	private Map<String, String> _lemsToGeppetto = new HashMap<String, String>();
 	private Map<String, String> _geppettoToLems = new HashMap<String, String>();
+	private volatile RecordedStates _recordedStates;
+	// the recorders can be added while an asynchronous build resolves them
+	private List<WatchPattern> _watchPatterns = new CopyOnWriteArrayList<WatchPattern>();
+	private List<SpikeRecorder> _spikeRecorders = new CopyOnWriteArrayList<SpikeRecorder>();
+	private boolean _asynchronousBuild = false;
+	private LEMSModelBuilder _modelBuilder = new LEMSModelBuilder();
+	private LEMSParameterOverrides _parameterOverrides = new LEMSParameterOverrides();
+	// the LEMS file the model was loaded from, null if it was not loaded from a URL
+	private URL _lemsSource = null;
+	// replaced by rebuild while holding _stepLock
+	private volatile StateHandleResolver _stateHandles = null;
+	private ForcedValues _forcedValues = new ForcedValues();
+	private volatile Future<Void> _modelReady = null;
+	// false while an asynchronously built model has not been announced on a session thread, guarded by this
+	private boolean _modelPublished = true;
+	// held while the watch patterns and spike recorders are resolved against the recorded states
+	private final Object _recordedStatesLock = new Object();
+	private WatchRateGroups _rateGroups = new WatchRateGroups();
+	// guarded by _stepLock
+	private Map<String, Integer> _watchDivisors = new HashMap<String, Integer>();
+	private long _step = 0;
+	private ExecutionPacer _pacer = new ExecutionPacer();
+	private RunControl _runControl = new RunControl();
+	private MemoryBudget _memory = new MemoryBudget();
+	private boolean _historyRejected = false;
+	private TieredHistoryStore _historyStore = null;
+	private FrameEncoder _frameEncoder = null;
+	private FrameListener _frameListener = null;
+	private double[] _frameValues = new double[0];
 
 	/*
 	 * (non-Javadoc)
@@ -134,34 +166,85 @@ public class JLEMSSimulatorService extends ASimulator
 	{
 		super.initialize(models, listener);
 		setTimeStepUnit("s");
-		try
+		// TODO Refactor simulators to deal with more than one model!
+		final ILEMSDocument lemsDocument = (ILEMSDocument) ((ModelWrapper) models.get(0)).getModel("lems");
+		_lemsSource = (URL) ((ModelWrapper) models.get(0)).getModel(URL_ID);
+		synchronized(this)
 		{
-			ILEMSBuilder builder = new LEMSBuilder();
-			// TODO Refactor simulators to deal with more than one model!
-			ILEMSDocument lemsDocument = (ILEMSDocument) ((ModelWrapper) models.get(0)).getModel("lems");
-
-			builder.addDocument(lemsDocument);
-
-			ILEMSBuildOptions options = new LEMSBuildOptions();
-			options.addBuildOption(LEMSBuildOptionsEnum.FLATTEN);
-
-			ILEMSBuildConfiguration config = new LEMSBuildConfiguration();
-			builder.build(config, options); // pre-build to read the run
-											// configuration and target from the
-											// file
-
-			_runConfig = LEMSDocumentReader.getLEMSRunConfiguration(lemsDocument);
-			config = new LEMSBuildConfiguration(LEMSDocumentReader.getTarget(lemsDocument));
-			Collection<ILEMSStateInstance> stateInstances = builder.build(config, options); // real build for our specific target
+			_modelPublished = false;
+		}
+		// the paths of a new model are mapped again as its states are first seen
+		_lemsToGeppetto.clear();
+		_geppettoToLems.clear();
+		_memory.clearPathEntries();
+		if(_asynchronousBuild)
+		{
+			// the visualization tree doesn't need the LEMS model, it can be populated while the model builds
+			FutureTask<Void> modelReady = new FutureTask<Void>(new Callable<Void>()
+			{
+				@Override
+				public Void call() throws GeppettoInitializationException, GeppettoExecutionException
+				{
+					buildModel(lemsDocument);
+					return null;
+				}
+			});
+			_modelReady = modelReady;
+			Thread build = new Thread(modelReady, "jLEMS model build");
+			build.setDaemon(true);
+			build.start();
+		}
+		else
+		{
+			_modelReady = null;
+			buildModel(lemsDocument);
+			publishModel();
+		}
+	}
 
-			_simulator = new LEMSSimulator();
-			for(ILEMSStateInstance instance : stateInstances)
+	/**
+	 * Builds the LEMS model and initializes the simulator with it. Can run on the build thread, the listener and the variable lists are left to
+	 * {@link #publishModel()}.
+	 * 
+	 * @param lemsDocument
+	 * @throws GeppettoInitializationException
+	 * @throws GeppettoExecutionException
+	 */
+	private void buildModel(ILEMSDocument lemsDocument) throws GeppettoInitializationException, GeppettoExecutionException
+	{
+		try
+		{
+			_modelBuilder.build(lemsDocument);
+			_runConfig = _modelBuilder.getRunConfig();
+			initializeSimulator(_modelBuilder.getStateInstances());
+			_stateHandles = new StateHandleResolver(_modelBuilder.getStateInstances());
+			if(!_stateHandles.isSupported())
 			{
-				_simulator.initialize(instance, _runConfig);
+				_logger.warn("The states of this jLEMS version can't be read or set, forcing variables and rebuilding the model will fail");
 			}
-
-			this.notifyStateTreeUpdated();
-			setWatchableVariables();
+			_forcedValues.clear();
+			RecordedStates recordedStates = new RecordedStates(_runConfig);
+			synchronized(_recordedStatesLock)
+			{
+				// a pattern added from now on is resolved against the new states by addWatchPattern
+				for(WatchPattern watchPattern : _watchPatterns)
+				{
+					watchPattern.resolve(recordedStates);
+				}
+				for(SpikeRecorder spikeRecorder : _spikeRecorders)
+				{
+					spikeRecorder.resolve(recordedStates);
+				}
+				_recordedStates = recordedStates;
+			}
+			_rateGroups.reset();
+			_historyRejected = false;
+			if(_historyStore != null)
+			{
+				_historyStore.close();
+			}
+			_step = 0;
+			_pacer.reset();
 		}
 		catch(LEMSBuildException e)
 		{
@@ -179,9 +262,247 @@ public class JLEMSSimulatorService extends ASimulator
 		{
 			throw new GeppettoInitializationException(e);
 		}
+		catch(IOException e)
+		{
+			throw new GeppettoInitializationException(e);
+		}
 		_logger.info("jLEMS Simulator initialized");
 	}
 
+	/**
+	 * Tells the listener about the new model and fills the watchable and forceable variables. Runs on the thread calling initialize, or for an
+	 * asynchronous build on the first session thread that waits for the model, so that the listener and the variable lists are never used by the build
+	 * thread.
+	 * 
+	 * @throws GeppettoExecutionException
+	 */
+	private synchronized void publishModel() throws GeppettoExecutionException
+	{
+		if(_modelPublished)
+		{
+			return;
+		}
+		_modelPublished = true;
+		this.notifyStateTreeUpdated();
+		setWatchableVariables();
+		setForceableVariables();
+	}
+
+	/**
+	 * @param stateInstances
+	 * @throws LEMSExecutionException
+	 */
+	private void initializeSimulator(Collection<ILEMSStateInstance> stateInstances) throws LEMSExecutionException
+	{
+		_simulator = new LEMSSimulator();
+		for(ILEMSStateInstance instance : stateInstances)
+		{
+			_simulator.initialize(instance, _runConfig);
+		}
+	}
+
+	/**
+	 * Overrides a parameter of the model, the override is applied by {@link #applyParameters()}
+	 * 
+	 * @param parameter
+	 *            componentId.parameterName, e.g. naChans.condDensity
+	 * @param value
+	 *            a LEMS quantity, e.g. 120mS_per_cm2
+	 */
+	public void setParameter(String parameter, String value)
+	{
+		_parameterOverrides.set(parameter, value);
+	}
+
+	/**
+	 * @return the parameters overridden so far
+	 */
+	public Map<String, String> getParameterOverrides()
+	{
+		return Collections.unmodifiableMap(_parameterOverrides.getOverrides());
+	}
+
+	/**
+	 * Rebuilds the model from the LEMS file it was loaded from with the parameter overrides applied, see {@link #rebuild(ILEMSDocument)}
+	 * 
+	 * @throws GeppettoExecutionException
+	 *             if the model was not loaded from a URL
+	 */
+	public void applyParameters() throws GeppettoExecutionException
+	{
+		awaitModel();
+		if(_lemsSource == null)
+		{
+			throw new GeppettoExecutionException("The model was not loaded from a URL, the parameters can't be applied to its source");
+		}
+		try
+		{
+			rebuild(_parameterOverrides.apply(_lemsSource));
+		}
+		catch(IOException e)
+		{
+			throw new GeppettoExecutionException(e);
+		}
+		catch(ContentError e)
+		{
+			throw new GeppettoExecutionException(e);
+		}
+		catch(IllegalArgumentException e)
+		{
+			throw new GeppettoExecutionException(e);
+		}
+	}
+
+	/**
+	 * Replaces the model with a modified version of it without re-initializing the simulator. The target and the run configuration of the current model
+	 * are kept, so only the target is built once and the watchable variables are not recomputed. The watch bindings, the watch trees, the recorded
+	 * history and the step count are kept. The recorded states of the new model start from their current values, so the recorded history goes on
+	 * without a jump, the states that are not recorded start from their initial values. Can be called while simulate runs on another thread, the model
+	 * is replaced between two steps.
+	 * 
+	 * @param lemsDocument
+	 * @throws GeppettoExecutionException
+	 */
+	public void rebuild(ILEMSDocument lemsDocument) throws GeppettoExecutionException
+	{
+		awaitModel();
+		try
+		{
+			synchronized(_modelBuilder)
+			{
+				// the build can take a while, a call to simulate in progress keeps stepping the current model meanwhile
+				_modelBuilder.rebuild(lemsDocument);
+				Collection<ILEMSStateInstance> stateInstances = _modelBuilder.getStateInstances();
+				StateHandleResolver stateHandles = new StateHandleResolver(stateInstances);
+				// everything is resolved before the swap, a state that can't be carried over leaves the current model untouched
+				RecordedStates recordedStates = _recordedStates;
+				StateHandle[] currentStates = new StateHandle[recordedStates.size()];
+				StateHandle[] newStates = new StateHandle[recordedStates.size()];
+				for(int i = 0; i < recordedStates.size(); i++)
+				{
+					currentStates[i] = _stateHandles.resolve(recordedStates.getPath(i));
+					newStates[i] = stateHandles.resolve(recordedStates.getPath(i));
+				}
+				// forceVariable holds _modelBuilder too, no force is added until the new handles are swapped in
+				Map<String, StateHandle> forcedStates = _forcedValues.resolve(stateHandles);
+				synchronized(_stepLock)
+				{
+					initializeSimulator(stateInstances);
+					for(int i = 0; i < newStates.length; i++)
+					{
+						newStates[i].set(currentStates[i].get());
+					}
+					_stateHandles = stateHandles;
+					// the forces apply to the new instances
+					_forcedValues.rebind(forcedStates);
+				}
+			}
+		}
+		catch(LEMSBuildException e)
+		{
+			throw new GeppettoExecutionException(e);
+		}
+		catch(LEMSExecutionException e)
+		{
+			throw new GeppettoExecutionException(e);
+		}
+		catch(ContentError e)
+		{
+			throw new GeppettoExecutionException(e);
+		}
+		catch(ParseError e)
+		{
+			throw new GeppettoExecutionException(e);
+		}
+		_logger.info("jLEMS model rebuilt with " + _parameterOverrides.getOverrides().size() + " parameter overrides");
+	}
+
+	/**
+	 * @param asynchronousBuild
+	 *            if true initialize returns before the LEMS model is built, the build runs on its own thread and {@link #getModelReady()} tells when it is
+	 *            done. Watch patterns and spike recorders can be added while it builds, simulate and the variable getters wait for it.
+	 */
+	public void setAsynchronousBuild(boolean asynchronousBuild)
+	{
+		_asynchronousBuild = asynchronousBuild;
+	}
+
+	/**
+	 * @return completes when the LEMS model is built and the simulator initialized, its get throws the initialization error if there was one. Null
+	 *         before initialize and after a synchronous initialize.
+	 */
+	public Future<Void> getModelReady()
+	{
+		return _modelReady;
+	}
+
+	/**
+	 * Waits for an asynchronous build to complete and publishes the model on the calling thread if no other thread did
+	 * 
+	 * @throws GeppettoExecutionException
+	 *             if the build failed
+	 */
+	private void awaitModel() throws GeppettoExecutionException
+	{
+		Future<Void> modelReady = _modelReady;
+		if(modelReady != null)
+		{
+			try
+			{
+				modelReady.get();
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new GeppettoExecutionException(e);
+			}
+			catch(ExecutionException e)
+			{
+				throw new GeppettoExecutionException(e.getCause());
+			}
+			publishModel();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.geppetto.core.simulator.ASimulator#getWatchableVariables()
+	 */
+	@Override
+	public VariableList getWatchableVariables()
+	{
+		awaitModelQuietly();
+		return super.getWatchableVariables();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.geppetto.core.simulator.ASimulator#getForceableVariables()
+	 */
+	@Override
+	public VariableList getForceableVariables()
+	{
+		awaitModelQuietly();
+		return super.getForceableVariables();
+	}
+
+	/**
+	 * Waits for an asynchronous build before the variable lists are read, a failed build leaves them empty
+	 */
+	private void awaitModelQuietly()
+	{
+		try
+		{
+			awaitModel();
+		}
+		catch(GeppettoExecutionException e)
+		{
+			_logger.warn("The jLEMS model could not be built, its variables are not available", e);
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -203,6 +524,7 @@ public class JLEMSSimulatorService extends ASimulator
 				{
 					URL url = (URL) ((ModelWrapper) model).getModel(URL_ID);
 					_populateVisualTree.createNodesFromNeuroMLDocument(visualizationTree, neuroml);
+					_memory.setVisualObjects(_populateVisualTree.getVisualObjectCount());
 					visualizationTree.setModified(true);
 					aspectNode.setModified(true);
 					((EntityNode) aspectNode.getParentEntity()).updateParentEntitiesFlags(true);
@@ -219,6 +541,115 @@ public class JLEMSSimulatorService extends ASimulator
 		return true;
 	}
 
+	/**
+	 * Builds the morphology of a cell that was added as a placeholder because the visualization tree was populated in lazy mode.
+	 * 
+	 * @param id
+	 *            the cell id or the population instance, e.g. hhpop[0]
+	 * @return true if the visualization tree changed
+	 * @throws GeppettoExecutionException
+	 */
+	public boolean populateVisualSubTree(String id) throws GeppettoExecutionException
+	{
+		List<ACompositeNode> changed = _populateVisualTree.expand(id);
+		_memory.setVisualObjects(_populateVisualTree.getVisualObjectCount());
+		for(ACompositeNode node : changed)
+		{
+			ANode visualizationTree = node;
+			while(visualizationTree != null && !(visualizationTree instanceof AspectSubTreeNode))
+			{
+				visualizationTree = visualizationTree.getParent();
+			}
+			if(visualizationTree != null)
+			{
+				visualizationTree.setModified(true);
+				AspectNode aspectNode = (AspectNode) visualizationTree.getParent();
+				aspectNode.setModified(true);
+				((EntityNode) aspectNode.getParentEntity()).updateParentEntitiesFlags(true);
+			}
+		}
+		if(!changed.isEmpty())
+		{
+			notifyStateTreeUpdated();
+		}
+		return !changed.isEmpty();
+	}
+
+	/**
+	 * @param lazy
+	 *            if true cells are only built when requested through {@link #populateVisualSubTree(String)}
+	 * @param maxExpanded
+	 *            how many of them are kept built at the same time
+	 */
+	public void setLazyVisualTree(boolean lazy, int maxExpanded)
+	{
+		_populateVisualTree.setLazy(lazy);
+		_populateVisualTree.setMaxExpanded(maxExpanded);
+	}
+
+	/**
+	 * @param cellId
+	 * @return the density of every channel on every segment of the cell, available once the visualization tree is populated
+	 */
+	public SegmentDensities getSegmentDensities(String cellId)
+	{
+		return _populateVisualTree.getSegmentDensities(cellId);
+	}
+
+	/**
+	 * @param streaming
+	 *            if true the visualization tree is notified a chunk at a time while it is being populated
+	 * @param chunkSize
+	 *            the number of population instances in a chunk
+	 */
+	public void setStreamingVisualTree(boolean streaming, int chunkSize)
+	{
+		if(streaming)
+		{
+			_populateVisualTree.setChunkListener(new ChunkListener()
+			{
+				@Override
+				public void chunkAttached(Set<AspectSubTreeNode> modifiedTrees) throws GeppettoExecutionException
+				{
+					for(AspectSubTreeNode visualizationTree : modifiedTrees)
+					{
+						visualizationTree.setModified(true);
+						AspectNode aspectNode = (AspectNode) visualizationTree.getParent();
+						aspectNode.setModified(true);
+						((EntityNode) aspectNode.getParentEntity()).updateParentEntitiesFlags(true);
+					}
+					notifyStateTreeUpdated();
+				}
+			}, chunkSize);
+		}
+		else
+		{
+			_populateVisualTree.setChunkListener(null, chunkSize);
+		}
+	}
+
+	/**
+	 * @param levelOfDetail
+	 *            the detail used to draw the cells of network populations
+	 * @param maxAngle
+	 *            the largest angle in degrees between two segments that can be merged
+	 * @param minDiameter
+	 *            the diameter below which segments are dropped
+	 */
+	public void setVisualTreeLevelOfDetail(LevelOfDetail levelOfDetail, double maxAngle, double minDiameter)
+	{
+		_populateVisualTree.setLevelOfDetail(levelOfDetail, maxAngle, minDiameter);
+	}
+
+	/**
+	 * @param parallelism
+	 *            the number of threads used to build the visualization tree of cells and populations
+	 */
+	public void setVisualTreeParallelism(int parallelism)
+	{
+		_populateVisualTree.setParallelism(parallelism);
+	}
+
 	/**
 	 * @return
 	 */
@@ -243,20 +674,111 @@ public class JLEMSSimulatorService extends ASimulator
 	@Override
 	public void simulate(IRunConfiguration runConfiguration, AspectNode aspect) throws GeppettoExecutionException
 	{
-		ILEMSResultsContainer results = new LEMSResultsContainer();
+		awaitModel();
+		double timestep = _runConfig.getTimestep();
+		_runControl.startCall();
 		try
 		{
-			_simulator.advance(results);
+			// a pause requested between two calls holds the next one before its first step
+			if(!_runControl.checkpoint())
+			{
+				return;
+			}
+			_pacer.startCall(_step * timestep, timestep);
+			try
+			{
+				boolean advance = true;
+				while(advance)
+				{
+					ILEMSResultsContainer results = new LEMSResultsContainer();
+					synchronized(_stepLock)
+					{
+						// the forced values are set on the resolved states before the step that should see them
+						_forcedValues.apply(_step + 1);
+						_simulator.advance(results);
+						updateSimulationTree(results, aspect);
+					}
+					advance = _pacer.stepDone(_step * timestep, timestep) && _runControl.checkpoint();
+				}
+			}
+			finally
+			{
+				_pacer.endCall();
+			}
 		}
 		catch(LEMSExecutionException e)
 		{
 			throw new GeppettoExecutionException(e);
 		}
-
-		updateSimulationTree(results, aspect);
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new GeppettoExecutionException(e);
+		}
+		finally
+		{
+			// whatever ends the call, pause and cancel no longer apply to it
+			_runControl.endCall();
+		}
+		// the tree is published once per call, whatever the number of steps
 		notifyStateTreeUpdated();
 	}
 
+	/**
+	 * Sets how many steps a call to simulate advances
+	 * 
+	 * @param mode
+	 * @param budgetMillis
+	 *            the wall clock budget of a call in the BUDGETED mode, the longest a call keeps stepping to catch up in the PACED mode
+	 * @param ratio
+	 *            simulated seconds per real second in the PACED mode
+	 */
+	public void setExecutionMode(ExecutionMode mode, long budgetMillis, double ratio)
+	{
+		_pacer.setMode(mode, budgetMillis, ratio);
+	}
+
+	/**
+	 * Pauses the stepping loop at its next step, returns immediately
+	 */
+	public void pause()
+	{
+		_runControl.pause();
+	}
+
+	/**
+	 * Resumes a paused stepping loop, returns immediately
+	 */
+	public void resume()
+	{
+		_runControl.resume();
+	}
+
+	/**
+	 * Stops the call to simulate in progress at its next step, returns immediately. The steps done so far are published and the simulation can be
+	 * continued with the next call. Ignored if no call is in progress.
+	 */
+	public void cancel()
+	{
+		_runControl.cancel();
+	}
+
+	/**
+	 * @return true if the stepping loop is waiting for {@link #resume()}
+	 */
+	public boolean isPaused()
+	{
+		return _runControl.isPaused();
+	}
+
+	/**
+	 * @return the pacer, which reports the achieved steps per second and real time ratio
+	 */
+	public ExecutionPacer getExecutionPacer()
+	{
+		return _pacer;
+	}
+
 	/**
 	 * @param results
 	 * @return
@@ -266,11 +788,43 @@ public class JLEMSSimulatorService extends ASimulator
 	{
 
 		advanceTimeStep(_runConfig.getTimestep());
+		_step++;
+		for(WatchPattern watchPattern : _watchPatterns)
+		{
+			if(_step % watchPattern.getDivisor() == 0)
+			{
+				watchPattern.update(_step, _step * _runConfig.getTimestep(), results, _recordedStates);
+			}
+		}
+		for(SpikeRecorder spikeRecorder : _spikeRecorders)
+		{
+			// over the cap the events still go to the listeners
+			spikeRecorder.setKeepingEvents(!_historyRejected);
+			spikeRecorder.update(_step * _runConfig.getTimestep(), results, _recordedStates);
+		}
+		if(!isWatching() && !_spikeRecorders.isEmpty())
+		{
+			// the spike events count against the cap whether or not variables are watched
+			enforceMemoryCap();
+		}
 		if(isWatching())
 		{
 			if(watchListModified() || treesEmptied())
 			{
 				watchListModified(false);
+				_rateGroups.clear();
+				if(treesEmptied())
+				{
+					_rateGroups.setSampleCount(0);
+					_historyRejected = false;
+				}
+				// over the cap with the REJECT policy the variables that do not have a node yet are not watched
+				boolean rejectNew = _memory.getPolicy() == OverflowPolicy.REJECT && _memory.isExceeded();
+				if(_frameEncoder != null)
+				{
+					_frameEncoder.reset();
+				}
+				Set<String> watchList = new HashSet<String>(getWatchList());
 				for(IStateIdentifier state : results.getStates().keySet())
 				{
 					String statePath = state.getStatePath().replace("/", ".");
@@ -284,11 +838,12 @@ public class JLEMSSimulatorService extends ASimulator
 					// for every state found in the results add a node in the
 					// tree
 					String fullPath = _lemsToGeppetto.get(statePath);
-					if(getWatchList().contains(fullPath))
+					if(watchList.contains(fullPath))
 					{
 						String post = fullPath.replace(simulationTree.getInstancePath(), "");
 						StringTokenizer tokenizer = new StringTokenizer(post, ".");
 						ACompositeNode node = simulationTree;
+						VariableNode leaf = null;
 						while(tokenizer.hasMoreElements())
 						{
 							String current = tokenizer.nextToken();
@@ -301,6 +856,10 @@ public class JLEMSSimulatorService extends ASimulator
 									{
 										node = (ACompositeNode) child;
 									}
+									else if(child instanceof VariableNode && !tokenizer.hasMoreElements())
+									{
+										leaf = (VariableNode) child;
+									}
 									found = true;
 									break;
 								}
@@ -309,6 +868,11 @@ public class JLEMSSimulatorService extends ASimulator
 							{
 								continue;
 							}
+							else if(rejectNew)
+							{
+								_logger.warn("Memory cap reached, " + fullPath + " is not watched");
+								break;
+							}
 							else
 							{
 								if(tokenizer.hasMoreElements())
@@ -324,16 +888,16 @@ public class JLEMSSimulatorService extends ASimulator
 									// it's a leaf node
 									VariableNode newNode = new VariableNode(current);
 									newNode.setId(current);
-									// commenting out until it's working
-									/*
-									 * Unit<? extends Quantity> unit = getUnitFromLEMSDimension (results.getStates ().get(state).getDimension()); newNode.setUnit(unit.toString());
-									 * 
-									 * UnitConverter r = unit.getConverterTo(unit .getStandardUnit());
-									 * 
-									 * long factor = 0; if(r instanceof RationalConverter ){ factor = ((RationalConverter) r).getDivisor(); }
-									 * 
-									 * newNode.setScalingFactor(_df.format(factor ));
-									 */
+									// units are resolved once per dimension and only when the node is created
+									ResolvedUnit unit = _unitResolver.resolve(results.getStates().get(state).getDimension());
+									if(unit != null)
+									{
+										newNode.setUnit(unit.getUnitString());
+										if(unit.getScalingFactor() != null)
+										{
+											newNode.setScalingFactor(unit.getScalingFactor());
+										}
+									}
 									ALEMSValue lemsValue = results.getStates().get(state).getLastValue();
 									if(lemsValue instanceof LEMSDoubleValue)
 									{
@@ -344,26 +908,271 @@ public class JLEMSSimulatorService extends ASimulator
 										newNode.addPhysicalQuantity(quantity);
 									}
 									node.addChild(newNode);
+									leaf = newNode;
+									_rateGroups.setSampleCount(_rateGroups.getSampleCount() + 1);
 								}
 							}
 						}
+						int stateIndex = _recordedStates.indexOf(statePath);
+						if(leaf != null && stateIndex >= 0)
+						{
+							Integer divisor = _watchDivisors.get(fullPath);
+							_rateGroups.add(divisor == null ? 1 : divisor, fullPath, leaf, stateIndex, simulationTree);
+						}
 					}
 				}
 				treesEmptied(false);
+				enforceMemoryCap();
+			}
+			else if(_frameListener != null)
+			{
+				// the values are streamed as frames instead of being added to the watch tree
+				if(_frameValues.length != _rateGroups.size())
+				{
+					_frameValues = new double[_rateGroups.size()];
+				}
+				_rateGroups.read(results, _recordedStates, _frameValues);
+				_frameListener.frameEncoded(_frameEncoder.encode(_step, _step * _runConfig.getTimestep(), _frameValues));
+			}
+			else if(!_historyRejected)
+			{
+				// only the rate groups due at this step are touched
+				Set<AspectSubTreeNode> watchTrees;
+				try
+				{
+					watchTrees = _rateGroups.update(_step, _step * _runConfig.getTimestep(), results, _recordedStates);
+				}
+				catch(IOException e)
+				{
+					throw new GeppettoExecutionException(e);
+				}
+				for(AspectSubTreeNode watchTree : watchTrees)
+				{
+					watchTree.setModified(true);
+					AspectNode aspectNode = (AspectNode) watchTree.getParent();
+					aspectNode.setModified(true);
+					((EntityNode) aspectNode.getParentEntity()).updateParentEntitiesFlags(true);
+				}
+				enforceMemoryCap();
+			}
+		}
+	}
+
+	/**
+	 * Keeps the estimated memory of the simulator under its cap, by decimating or spilling the watched history or by no longer recording it and the spike
+	 * events. Decimating and spilling fall back to no longer recording when they cannot bring the estimate under the cap.
+	 */
+	private void enforceMemoryCap()
+	{
+		_memory.setHistorySamples(_rateGroups.getSampleCount());
+		_memory.setBufferedSamples(_historyStore == null ? 0 : _historyStore.getAllocatedSampleCount());
+		long spikeEvents = 0;
+		for(SpikeRecorder spikeRecorder : _spikeRecorders)
+		{
+			spikeEvents += spikeRecorder.getEventCount();
+		}
+		_memory.setSpikeEvents(spikeEvents);
+		if(!_memory.isExceeded())
+		{
+			return;
+		}
+		if(_memory.getPolicy() == OverflowPolicy.SPILL)
+		{
+			// the whole history is in the store, the trees only need the latest values
+			_rateGroups.trim();
+			_memory.setHistorySamples(_rateGroups.getSampleCount());
+		}
+		else if(_memory.getPolicy() == OverflowPolicy.DECIMATE)
+		{
+			_rateGroups.decimate(_memory);
+		}
+		if(_memory.isExceeded())
+		{
+			// the history is not what is over the cap, e.g. the spike events, recording more would only grow the estimate
+			if(!_historyRejected)
+			{
+				_historyRejected = true;
+				_logger.warn("Memory cap of " + _memory.getCap() + " bytes reached, the watched variables and spike events are no longer recorded");
+			}
+		}
+	}
+
+	/**
+	 * Caps the memory retained by this simulator: watched history, spike events, visualization tree and path maps
+	 * 
+	 * @param bytes
+	 * @param policy
+	 *            what to do when the estimate goes over the cap
+	 */
+	public void setMemoryCap(long bytes, OverflowPolicy policy)
+	{
+		_memory.setCap(bytes, policy);
+		_historyRejected = false;
+		if(policy == OverflowPolicy.SPILL)
+		{
+			setHistoryRecording(true);
+		}
+		enforceMemoryCap();
+	}
 
+	/**
+	 * Records the watched history with the time of every value, so that it can be queried with {@link #getTimeWindows}. The recording starts with
+	 * the next step.
+	 * 
+	 * @param record
+	 */
+	public void setHistoryRecording(boolean record)
+	{
+		if(record && _historyStore == null)
+		{
+			_historyStore = new TieredHistoryStore(HISTORY_BLOCK_SIZE, HISTORY_CACHED_BLOCKS);
+		}
+		else if(!record && _historyStore != null && _memory.getPolicy() != OverflowPolicy.SPILL)
+		{
+			try
+			{
+				_historyStore.close();
+			}
+			catch(IOException e)
+			{
+				_logger.warn("Could not delete the history file", e);
 			}
-			else
+			_historyStore = null;
+		}
+		_rateGroups.setHistoryStore(_historyStore);
+		// the watched variables are registered in the store when the rate groups are rebuilt
+		watchListModified(true);
+	}
+
+	/**
+	 * Returns the recorded samples of watched variables in a time window
+	 * 
+	 * @param variablePaths
+	 *            the instance paths of watched variables
+	 * @param from
+	 *            first time included
+	 * @param to
+	 *            first time excluded
+	 * @param maxPoints
+	 *            the maximum number of samples per variable, 0 for all of them
+	 * @return one window per path, in the same order, empty for variables that were not recorded
+	 * @throws GeppettoExecutionException
+	 *             if the history is not recorded
+	 */
+	public List<TimeWindow> getTimeWindows(List<String> variablePaths, double from, double to, int maxPoints) throws GeppettoExecutionException
+	{
+		if(_historyStore == null)
+		{
+			throw new GeppettoExecutionException("The history of the watched variables is not recorded, see setHistoryRecording");
+		}
+		List<TimeWindow> windows = new ArrayList<TimeWindow>();
+		try
+		{
+			for(String path : variablePaths)
 			{
-				UpdateLEMSimulationTreeVisitor updateStateTreeVisitor = new UpdateLEMSimulationTreeVisitor(results, aspect, _geppettoToLems);
-				aspect.getParent().apply(updateStateTreeVisitor);
-				if(updateStateTreeVisitor.getError() != null)
+				int variable = _historyStore.indexOf(path);
+				TimeWindow window;
+				if(variable < 0)
+				{
+					window = new TimeWindow(path, new double[0], new double[0]);
+				}
+				else
 				{
-					throw new GeppettoExecutionException(updateStateTreeVisitor.getError());
+					double[][] samples = _historyStore.read(variable, from, to);
+					window = new TimeWindow(path, samples[0], samples[1]);
 				}
+				windows.add(maxPoints > 0 ? window.downsample(maxPoints) : window);
+			}
+		}
+		catch(IOException e)
+		{
+			throw new GeppettoExecutionException(e);
+		}
+		return windows;
+	}
+
+	/**
+	 * @return the store holding the watched history, null if it is not recorded
+	 */
+	public TieredHistoryStore getHistoryStore()
+	{
+		return _historyStore;
+	}
+
+	/**
+	 * @return the memory estimate of this simulator
+	 */
+	public MemoryBudget getMemoryBudget()
+	{
+		return _memory;
+	}
+
+	/**
+	 * Streams the watched values as binary frames instead of adding them to the watch tree. The values of a frame are in the order of
+	 * {@link #getFramePaths()}, which changes when the watch list or a divisor changes; the first frame after a change is a key frame.
+	 * 
+	 * @param frameEncoder
+	 *            null to go back to the watch tree
+	 * @param frameListener
+	 */
+	public void setFrameEncoder(FrameEncoder frameEncoder, FrameListener frameListener)
+	{
+		_frameEncoder = frameEncoder;
+		_frameListener = frameEncoder == null ? null : frameListener;
+		if(_frameEncoder != null)
+		{
+			_frameEncoder.reset();
+		}
+	}
+
+	/**
+	 * @return the instance paths of the values of the frames
+	 */
+	public List<String> getFramePaths()
+	{
+		return _rateGroups.getPaths();
+	}
+
+	/**
+	 * Sets how often a watched variable is added to the watch tree
+	 * 
+	 * @param variablePath
+	 *            the instance path of the watched variable
+	 * @param divisor
+	 *            the variable is updated every divisor steps, 1 updates it at every step
+	 */
+	public void setWatchDivisor(String variablePath, int divisor)
+	{
+		synchronized(_stepLock)
+		{
+			_watchDivisors.put(variablePath, Math.max(1, divisor));
+			// only the node of the variable changes group, a variable without a node yet gets its divisor when it is bound
+			if(_rateGroups.setDivisor(variablePath, divisor) && _frameEncoder != null)
+			{
+				// the order of the frame values changed
+				_frameEncoder.reset();
 			}
 		}
 	}
 
+	/**
+	 * @param variablePath
+	 *            the instance path of the watched variable
+	 * @param period
+	 *            the output period in seconds, rounded to a multiple of the timestep
+	 * @throws GeppettoExecutionException
+	 *             if the simulator is not initialized
+	 */
+	public void setWatchPeriod(String variablePath, double period) throws GeppettoExecutionException
+	{
+		awaitModel();
+		if(_runConfig == null)
+		{
+			throw new GeppettoExecutionException("The output period can only be set once the run configuration is known");
+		}
+		setWatchDivisor(variablePath, (int) Math.round(period / _runConfig.getTimestep()));
+	}
+
 	/**
 	 * @param statePath
 	 * @param simulationTree
@@ -421,6 +1230,10 @@ public class JLEMSSimulatorService extends ASimulator
 					}
 					//We replace the pattern .digits. with [digits] as Geppetto doesn't support nodes that have numbers as names
 					post = post.replaceAll("\\.(\\d*)\\.", "\\[$1\\]\\.");
+					if(!_lemsToGeppetto.containsKey(statePath))
+					{
+						_memory.addPathEntry(statePath, a.getSubTree(AspectTreeType.WATCH_TREE).getInstancePath() + "." + post);
+					}
 					_lemsToGeppetto.put(statePath, a.getSubTree(AspectTreeType.WATCH_TREE).getInstancePath() + "." + post);
 					_geppettoToLems.put(a.getSubTree(AspectTreeType.WATCH_TREE).getInstancePath() + "." + post, statePath);
 					return a.getSubTree(AspectTreeType.WATCH_TREE);
@@ -432,6 +1245,83 @@ public class JLEMSSimulatorService extends ASimulator
 		return null;
 	}
 
+	/**
+	 * Watches all the recorded states matching a pattern, e.g. hhpop[*].v or hhpop[0:99].bioPhys1.*.q. The values of the matching states are not added to the
+	 * watch tree, they are packed in the vector returned by {@link WatchPattern#getValues()} after every step. When more than one step runs per call, e.g. in
+	 * the budgeted or paced execution modes, set a {@link WatchPatternListener} on the pattern to receive every step.
+	 * 
+	 * @param pattern
+	 * @return the watch, resolved against the recorded states if the simulator is initialized
+	 */
+	public WatchPattern addWatchPattern(String pattern)
+	{
+		WatchPattern watchPattern = new WatchPattern(pattern);
+		synchronized(_recordedStatesLock)
+		{
+			if(_recordedStates != null)
+			{
+				watchPattern.resolve(_recordedStates);
+			}
+			_watchPatterns.add(watchPattern);
+		}
+		return watchPattern;
+	}
+
+	/**
+	 * @param watchPattern
+	 */
+	public void removeWatchPattern(WatchPattern watchPattern)
+	{
+		_watchPatterns.remove(watchPattern);
+	}
+
+	/**
+	 * @return
+	 */
+	public List<WatchPattern> getWatchPatterns()
+	{
+		return Collections.unmodifiableList(_watchPatterns);
+	}
+
+	/**
+	 * Records only the threshold crossings of the states matching a pattern, e.g. net1.hhpop[*].v with a threshold of 0 for the spikes of a population
+	 * 
+	 * @param pattern
+	 *            see {@link WatchPattern}
+	 * @param threshold
+	 *            {@link SpikeRecorder#SPIKING} for LEMS spiking states
+	 * @return the recorder holding the events
+	 */
+	public SpikeRecorder addSpikeRecorder(String pattern, double threshold)
+	{
+		SpikeRecorder spikeRecorder = new SpikeRecorder(pattern, threshold);
+		synchronized(_recordedStatesLock)
+		{
+			if(_recordedStates != null)
+			{
+				spikeRecorder.resolve(_recordedStates);
+			}
+			_spikeRecorders.add(spikeRecorder);
+		}
+		return spikeRecorder;
+	}
+
+	/**
+	 * @param spikeRecorder
+	 */
+	public void removeSpikeRecorder(SpikeRecorder spikeRecorder)
+	{
+		_spikeRecorders.remove(spikeRecorder);
+	}
+
+	/**
+	 * @return
+	 */
+	public List<SpikeRecorder> getSpikeRecorders()
+	{
+		return Collections.unmodifiableList(_spikeRecorders);
+	}
+
 	/**
 	 * @param str
 	 * @return
@@ -455,185 +1345,103 @@ public class JLEMSSimulatorService extends ASimulator
 	 */
 	public Unit<? extends Quantity> getUnitFromLEMSDimension(String dimension)
 	{
-		// the dimension string is a comma-separated list of dimension powers in
-		// the order
-		// mass, length, time, current, temperature, amount, brightness
-		StringTokenizer st = new StringTokenizer(dimension, ",");
-
-		Unit<? extends Quantity> resultingUnit = Unit.ONE;
-		float mass = getDecimalNumber(Integer.parseInt(st.nextToken()));
-		if(mass != 0)
-		{
-			resultingUnit = resultingUnit.times(getUnit(mass, SI.GRAM));
-		}
-		float length = getDecimalNumber(Integer.parseInt(st.nextToken()));
-		if(length != 0)
-		{
-			resultingUnit = resultingUnit.times(getUnit(length, SI.METER));
-		}
-		float time = getDecimalNumber(Integer.parseInt(st.nextToken()));
-		if(time != 0)
-		{
-			resultingUnit = resultingUnit.times(getUnit(time, SI.SECOND));
-		}
-		float current = getDecimalNumber(Integer.parseInt(st.nextToken()));
-		if(current != 0)
-		{
-			resultingUnit = resultingUnit.times(getUnit(current, SI.AMPERE));
-		}
-		float temperature = getDecimalNumber(Integer.parseInt(st.nextToken()));
-		if(temperature != 0)
-		{
-			resultingUnit = resultingUnit.times(getUnit(temperature, SI.CELSIUS));
-		}
-		float amount = getDecimalNumber(Integer.parseInt(st.nextToken()));
-		if(amount != 0)
-		{
-			resultingUnit = resultingUnit.times(getUnit(amount, SI.MOLE));
-		}
-		float brightness = getDecimalNumber(Integer.parseInt(st.nextToken()));
-		if(brightness != 0)
-		{
-			resultingUnit = resultingUnit.times(getUnit(brightness, SI.CANDELA));
-		}
-		return resultingUnit;
+		ResolvedUnit resolved = _unitResolver.resolve(dimension);
+		return resolved == null ? null : resolved.getUnit();
 	}
 
 	/**
-	 * @param noZeros
-	 * @param unit
-	 * @return
+	 * The recorded states can also be forced, see {@link #forceVariable}
 	 */
-	private Unit<?> getUnit(Float scaling, Unit<?> unit)
-	{
-		switch(scaling.intValue())
-		{
-			case -12:
-				return SI.PICO(unit);
-			case -9:
-				return SI.NANO(unit);
-			case -6:
-				return SI.MICRO(unit);
-			case -3:
-				return SI.MILLI(unit);
-			case -2:
-				return SI.CENTI(unit);
-			case -1:
-				return SI.DECI(unit);
-			case 12:
-				return SI.TERA(unit);
-			case 6:
-				return SI.MEGA(unit);
-			case 3:
-				return SI.KILO(unit);
-			case 2:
-				return SI.HECTO(unit);
-			case 1:
-				return unit;
-			default:
-				return unit.times(scaling);
-		}
-	}
-
-	/**
-	 * @param noZeros
-	 * @return
+	public void setForceableVariables()
+	{
+		addRecordedStates(super.getForceableVariables());
+	}
+
+	/**
+	 * Sets a state of the model over a range of steps. The state is resolved once, the value is set from an array before each step.
+	 * 
+	 * @param statePath
+	 *            e.g. hhpop[0].v or hhpop[0]/v
+	 * @param value
+	 *            in SI units
+	 * @param fromStep
+	 *            the first step to see the value
+	 * @param toStep
+	 *            the last step to see the value
+	 * @throws GeppettoExecutionException
+	 *             if the state cannot be resolved
 	 */
-	private float getDecimalNumber(int noZeros)
+	public void forceVariable(String statePath, double value, long fromStep, long toStep) throws GeppettoExecutionException
 	{
-		if(noZeros > 0)
+		awaitModel();
+		String path = statePath.replace(".", "/");
+		// a rebuild resolves the forced states on the new model before swapping it in, the force waits for it to be over
+		synchronized(_modelBuilder)
 		{
-			char[] zeros = {};
-			if(noZeros > 1)
+			StateHandle handle = _forcedValues.getHandle(path);
+			if(handle == null)
 			{
-				zeros = new char[noZeros];
+				handle = _stateHandles.resolve(path);
 			}
-			Arrays.fill(zeros, '0');
-			return Float.parseFloat("1" + String.valueOf(zeros));
-		}
-		else if(noZeros < 0)
-		{
-			char[] zeros = new char[Math.abs(noZeros + 1)];
-			Arrays.fill(zeros, '0');
-			return Float.parseFloat("0." + String.valueOf(zeros) + "1");
-		}
-		else
-		{
-			return 0f;
+			_forcedValues.add(handle, value, fromStep, toStep);
 		}
 	}
 
 	/**
+	 * Holds a state at a value from the next step until it is released
 	 * 
+	 * @param statePath
+	 * @param value
+	 * @throws GeppettoExecutionException
 	 */
-	public void setWatchableVariables()
+	public void clampVariable(String statePath, double value) throws GeppettoExecutionException
 	{
+		forceVariable(statePath, value, _step + 1, Long.MAX_VALUE);
+	}
 
-		SimpleType floatType = DataModelFactory.getSimpleType(Type.FLOAT);
-
-		for(IStateRecord state : _runConfig.getRecordedStates())
-		{
-			List<AVariable> listToCheck = getWatchableVariables().getVariables();
-			StringTokenizer stok = new StringTokenizer(state.getState().getStatePath(), "/");
-
-			while(stok.hasMoreTokens())
-			{
-				String s = stok.nextToken();
-				String searchVar = s;
-
-				if(ArrayUtils.isArray(s))
-				{
-					searchVar = ArrayUtils.getArrayName(s);
-				}
+	/**
+	 * Sets a state once, before the given step
+	 * 
+	 * @param statePath
+	 * @param value
+	 * @param step
+	 * @throws GeppettoExecutionException
+	 */
+	public void injectValue(String statePath, double value, long step) throws GeppettoExecutionException
+	{
+		forceVariable(statePath, value, step, step);
+	}
 
-				AVariable v = ASimulator.getVariable(searchVar, listToCheck);
+	/**
+	 * Stops forcing a state
+	 * 
+	 * @param statePath
+	 */
+	public void releaseVariable(String statePath)
+	{
+		_forcedValues.release(statePath.replace(".", "/"));
+	}
 
-				if(v == null)
-				{
-					if(stok.hasMoreTokens())
-					{
-						StructuredType structuredType = new StructuredType();
-						structuredType.setName(searchVar + "T");
+	/**
+	 * 
+	 */
+	public void setWatchableVariables()
+	{
+		addRecordedStates(super.getWatchableVariables());
+	}
 
-						if(ArrayUtils.isArray(s))
-						{
-							v = DataModelFactory.getArrayVariable(searchVar, structuredType, ArrayUtils.getArrayIndex(s) + 1);
-						}
-						else
-						{
-							v = DataModelFactory.getSimpleVariable(searchVar, structuredType);
-						}
-						listToCheck.add(v);
-						listToCheck = structuredType.getVariables();
-					}
-					else
-					{
-						if(ArrayUtils.isArray(s))
-						{
-							v = DataModelFactory.getArrayVariable(searchVar, floatType, ArrayUtils.getArrayIndex(s) + 1);
-						}
-						else
-						{
-							v = DataModelFactory.getSimpleVariable(searchVar, floatType);
-						}
-						listToCheck.add(v);
-					}
-				}
-				else
-				{
-					if(stok.hasMoreTokens())
-					{
-						listToCheck = ((StructuredType) v.getType()).getVariables();
-						if(ArrayUtils.isArray(s))
-						{
-							if(ArrayUtils.getArrayIndex(s) + 1 > ((ArrayVariable) v).getSize())
-							{
-								((ArrayVariable) v).setSize(ArrayUtils.getArrayIndex(s) + 1);
-							}
-						}
-					}
-				}
-			}
+	/**
+	 * Adds the recorded states of the run configuration to a variable list. The lists are filled while the model is published, so they are accessed through
+	 * super, the overridden getters would wait for the model again.
+	 * 
+	 * @param variables
+	 */
+	private void addRecordedStates(VariableList variables)
+	{
+		WatchableVariablesBuilder builder = new WatchableVariablesBuilder(variables.getVariables());
+		for(IStateRecord state : _runConfig.getRecordedStates())
+		{
+			builder.addPath(state.getState().getStatePath());
 		}
 	}
 
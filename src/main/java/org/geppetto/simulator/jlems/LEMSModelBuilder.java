@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems;
+
+import java.util.Collection;
+
+import org.lemsml.jlems.api.LEMSBuildConfiguration;
+import org.lemsml.jlems.api.LEMSBuildException;
+import org.lemsml.jlems.api.LEMSBuildOptions;
+import org.lemsml.jlems.api.LEMSBuildOptionsEnum;
+import org.lemsml.jlems.api.LEMSBuilder;
+import org.lemsml.jlems.api.LEMSDocumentReader;
+import org.lemsml.jlems.api.interfaces.ILEMSBuildConfiguration;
+import org.lemsml.jlems.api.interfaces.ILEMSBuildOptions;
+import org.lemsml.jlems.api.interfaces.ILEMSBuilder;
+import org.lemsml.jlems.api.interfaces.ILEMSDocument;
+import org.lemsml.jlems.api.interfaces.ILEMSRunConfiguration;
+import org.lemsml.jlems.api.interfaces.ILEMSStateInstance;
+import org.lemsml.jlems.core.expression.ParseError;
+import org.lemsml.jlems.core.sim.ContentError;
+
+/**
+ * Builds the flattened state instances of the target of a LEMS document together with its run configuration
+ */
+public class LEMSModelBuilder
+{
+
+	private ILEMSRunConfiguration _runConfig;
+	private String _target;
+	private Collection<ILEMSStateInstance> _stateInstances;
+
+	/**
+	 * @param lemsDocument
+	 * @throws LEMSBuildException
+	 * @throws ContentError
+	 * @throws ParseError
+	 */
+	public void build(ILEMSDocument lemsDocument) throws LEMSBuildException, ContentError, ParseError
+	{
+		ILEMSBuilder builder = new LEMSBuilder();
+		builder.addDocument(lemsDocument);
+
+		ILEMSBuildOptions options = new LEMSBuildOptions();
+		options.addBuildOption(LEMSBuildOptionsEnum.FLATTEN);
+
+		ILEMSBuildConfiguration config = new LEMSBuildConfiguration();
+		builder.build(config, options); // pre-build to read the run
+										// configuration and target from the
+										// file
+
+		_runConfig = LEMSDocumentReader.getLEMSRunConfiguration(lemsDocument);
+		_target = LEMSDocumentReader.getTarget(lemsDocument);
+		config = new LEMSBuildConfiguration(_target);
+		_stateInstances = builder.build(config, options); // real build for our specific target
+	}
+
+	/**
+	 * Builds a modified version of the last document built. The run configuration and the target are kept, so the pre-build is skipped.
+	 * 
+	 * @param lemsDocument
+	 * @throws LEMSBuildException
+	 * @throws ContentError
+	 * @throws ParseError
+	 */
+	public void rebuild(ILEMSDocument lemsDocument) throws LEMSBuildException, ContentError, ParseError
+	{
+		if(_target == null)
+		{
+			build(lemsDocument);
+			return;
+		}
+		ILEMSBuilder builder = new LEMSBuilder();
+		builder.addDocument(lemsDocument);
+
+		ILEMSBuildOptions options = new LEMSBuildOptions();
+		options.addBuildOption(LEMSBuildOptionsEnum.FLATTEN);
+
+		_stateInstances = builder.build(new LEMSBuildConfiguration(_target), options);
+	}
+
+	/**
+	 * @return the run configuration of the last document built
+	 */
+	public ILEMSRunConfiguration getRunConfig()
+	{
+		return _runConfig;
+	}
+
+	/**
+	 * @return the state instances of the last document built
+	 */
+	public Collection<ILEMSStateInstance> getStateInstances()
+	{
+		return _stateInstances;
+	}
+}
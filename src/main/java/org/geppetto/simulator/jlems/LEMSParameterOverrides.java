@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.lemsml.jlems.api.LEMSDocumentReader;
+import org.lemsml.jlems.api.interfaces.ILEMSDocument;
+import org.lemsml.jlems.core.sim.ContentError;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Parameter values overriding the ones of a LEMS file. A parameter is identified as componentId.parameterName, its value is a LEMS quantity such as
+ * 120mS_per_cm2. The overrides are applied to the attributes of the component elements of the file, the included files are not changed.
+ * <p>
+ * The overrides are not set on the built state instances the way {@link StateHandleResolver} sets state variables: a component is a definition, the
+ * builder copies its parameters into every instance made from it and there is no way back from a component id to those instances. Derived parameters and
+ * the OnStart assignments are also computed from the parameters when an instance is built, so they would keep the old values. The model is rebuilt from
+ * the modified file instead and the simulator carries the recorded states over, see {@link JLEMSSimulatorService#rebuild(ILEMSDocument)}.
+ */
+public class LEMSParameterOverrides
+{
+
+	private Map<String, String> _overrides = new LinkedHashMap<String, String>();
+
+	/**
+	 * @param parameter
+	 *            componentId.parameterName
+	 * @param value
+	 */
+	public void set(String parameter, String value)
+	{
+		if(parameter.indexOf('.') <= 0)
+		{
+			throw new IllegalArgumentException("A parameter is identified as componentId.parameterName, not " + parameter);
+		}
+		_overrides.put(parameter, value);
+	}
+
+	/**
+	 * @param parameter
+	 */
+	public void remove(String parameter)
+	{
+		_overrides.remove(parameter);
+	}
+
+	/**
+	 * @return
+	 */
+	public Map<String, String> getOverrides()
+	{
+		return _overrides;
+	}
+
+	/**
+	 * Writes a copy of the LEMS file with the overrides applied to the temporary directory and reads it. The includes that resolve relative to the source
+	 * are rewritten to absolute URLs, the others are left to jLEMS, which finds e.g. the NeuroML core types by itself.
+	 * 
+	 * @param lemsSource
+	 * @return the modified document
+	 * @throws IOException
+	 * @throws ContentError
+	 * @throws IllegalArgumentException
+	 *             if a component of the overrides is not in the file
+	 */
+	public ILEMSDocument apply(URL lemsSource) throws IOException, ContentError
+	{
+		try
+		{
+			Document xml;
+			InputStream in = lemsSource.openStream();
+			try
+			{
+				xml = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in, lemsSource.toString());
+			}
+			finally
+			{
+				in.close();
+			}
+
+			Map<String, Element> components = new LinkedHashMap<String, Element>();
+			NodeList elements = xml.getElementsByTagName("*");
+			for(int i = 0; i < elements.getLength(); i++)
+			{
+				Element element = (Element) elements.item(i);
+				if(element.hasAttribute("id"))
+				{
+					components.put(element.getAttribute("id"), element);
+				}
+			}
+			for(Map.Entry<String, String> override : _overrides.entrySet())
+			{
+				String parameter = override.getKey();
+				int dot = parameter.lastIndexOf('.');
+				Element component = components.get(parameter.substring(0, dot));
+				if(component == null)
+				{
+					throw new IllegalArgumentException("No component " + parameter.substring(0, dot) + " in " + lemsSource);
+				}
+				component.setAttribute(parameter.substring(dot + 1), override.getValue());
+			}
+			resolveIncludes(xml, lemsSource);
+
+			// a file of its own for every call, the source directory is left untouched
+			File copy = File.createTempFile("overrides", ".xml");
+			copy.deleteOnExit();
+			try
+			{
+				TransformerFactory.newInstance().newTransformer().transform(new DOMSource(xml), new StreamResult(copy));
+				return new LEMSDocumentReader().readModel(copy.toURI().toURL());
+			}
+			finally
+			{
+				copy.delete();
+			}
+		}
+		catch(ParserConfigurationException e)
+		{
+			throw new IOException(e);
+		}
+		catch(SAXException e)
+		{
+			throw new IOException(e);
+		}
+		catch(TransformerException e)
+		{
+			throw new IOException(e);
+		}
+		catch(URISyntaxException e)
+		{
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Rewrites the includes found relative to the source as absolute URLs, so that the copy can be read from another directory
+	 * 
+	 * @param xml
+	 * @param lemsSource
+	 * @throws URISyntaxException
+	 */
+	private static void resolveIncludes(Document xml, URL lemsSource) throws URISyntaxException
+	{
+		NodeList elements = xml.getElementsByTagName("Include");
+		for(int i = 0; i < elements.getLength(); i++)
+		{
+			Element include = (Element) elements.item(i);
+			try
+			{
+				URL included = new URL(lemsSource, include.getAttribute("file"));
+				if(exists(included))
+				{
+					include.setAttribute("file", included.toString());
+				}
+			}
+			catch(MalformedURLException e)
+			{
+				// not a path, left to jLEMS
+			}
+		}
+	}
+
+	/**
+	 * @param url
+	 * @return true if the resource can be read
+	 * @throws URISyntaxException
+	 */
+	private static boolean exists(URL url) throws URISyntaxException
+	{
+		if("file".equals(url.getProtocol()))
+		{
+			return new File(url.toURI()).isFile();
+		}
+		try
+		{
+			url.openStream().close();
+			return true;
+		}
+		catch(IOException e)
+		{
+			return false;
+		}
+	}
+}
@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems;
+
+import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.measure.converter.ConversionException;
+import javax.measure.converter.MultiplyConverter;
+import javax.measure.converter.RationalConverter;
+import javax.measure.converter.UnitConverter;
+import javax.measure.quantity.Quantity;
+import javax.measure.unit.SI;
+import javax.measure.unit.Unit;
+
+/**
+ * Resolves LEMS dimension strings to units. Every distinct dimension is resolved once, together with the factor that scales a value in standard units to
+ * the resolved unit.
+ */
+public class LEMSUnitResolver
+{
+
+	/**
+	 * The SI base units in the order of the LEMS dimension powers
+	 */
+	private static final Unit<?>[] BASE_UNITS = { SI.KILOGRAM, SI.METRE, SI.SECOND, SI.AMPERE, SI.KELVIN, SI.MOLE, SI.CANDELA };
+
+	/**
+	 * The derived units a product of base units is shown as, a rate stays 1/s rather than Hz
+	 */
+	private static final List<Unit<? extends Quantity>> NAMED_UNITS = Arrays.<Unit<? extends Quantity>> asList(SI.VOLT, SI.SIEMENS, SI.FARAD, SI.OHM,
+			SI.COULOMB, SI.SIEMENS.divide(SI.METRE.pow(2)), SI.FARAD.divide(SI.METRE.pow(2)));
+
+	private Map<String, ResolvedUnit> _units = new ConcurrentHashMap<String, ResolvedUnit>();
+	private DecimalFormat _df = new DecimalFormat("0.E0");
+
+	/**
+	 * A unit and the formatted factor to scale standard values to it
+	 */
+	public static class ResolvedUnit
+	{
+		private Unit<? extends Quantity> _unit;
+		private String _unitString;
+		private String _scalingFactor;
+
+		private ResolvedUnit(Unit<? extends Quantity> unit, String scalingFactor)
+		{
+			_unit = unit;
+			_unitString = unit.toString();
+			_scalingFactor = scalingFactor;
+		}
+
+		public Unit<? extends Quantity> getUnit()
+		{
+			return _unit;
+		}
+
+		/**
+		 * @return the unit as shown to the user
+		 */
+		public String getUnitString()
+		{
+			return _unitString;
+		}
+
+		/**
+		 * @return the formatted factor, null if the unit isn't a scaled standard unit
+		 */
+		public String getScalingFactor()
+		{
+			return _scalingFactor;
+		}
+	}
+
+	/**
+	 * @param dimension
+	 *            the comma-separated list of dimension powers in the order mass, length, time, current, temperature, amount, brightness
+	 * @return null if the dimension can't be parsed
+	 */
+	public ResolvedUnit resolve(String dimension)
+	{
+		if(dimension == null)
+		{
+			return null;
+		}
+		ResolvedUnit resolved = _units.get(dimension);
+		if(resolved == null)
+		{
+			try
+			{
+				Unit<? extends Quantity> unit = getUnitFromLEMSDimension(dimension);
+				resolved = new ResolvedUnit(unit, getScalingFactor(unit));
+				_units.put(dimension, resolved);
+			}
+			catch(RuntimeException e)
+			{
+				// not a LEMS dimension
+				return null;
+			}
+		}
+		return resolved;
+	}
+
+	/**
+	 * @param unit
+	 * @return the formatted factor converting a value in the standard unit to the given unit
+	 */
+	private String getScalingFactor(Unit<? extends Quantity> unit)
+	{
+		try
+		{
+			UnitConverter converter = unit.getConverterTo(unit.getStandardUnit());
+			double factor = 1;
+			if(converter instanceof RationalConverter)
+			{
+				factor = (double) ((RationalConverter) converter).getDivisor() / ((RationalConverter) converter).getDividend();
+			}
+			else if(converter instanceof MultiplyConverter)
+			{
+				factor = 1 / ((MultiplyConverter) converter).getFactor();
+			}
+			else if(converter != UnitConverter.IDENTITY)
+			{
+				return null;
+			}
+			synchronized(_df)
+			{
+				return _df.format(factor);
+			}
+		}
+		catch(ConversionException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * @param dimension
+	 *            the comma-separated list of dimension powers in the order mass, length, time, current, temperature, amount, brightness
+	 * @return the product of the SI base units raised to the dimension powers, shown as a named SI unit when there is one, e.g. V for 1,2,-3,-1,0,0,0
+	 */
+	public Unit<? extends Quantity> getUnitFromLEMSDimension(String dimension)
+	{
+		String[] powers = dimension.split(",");
+		if(powers.length != BASE_UNITS.length)
+		{
+			throw new IllegalArgumentException("A LEMS dimension has " + BASE_UNITS.length + " powers, not " + dimension);
+		}
+		Unit<? extends Quantity> resultingUnit = Unit.ONE;
+		for(int i = 0; i < powers.length; i++)
+		{
+			int power = Integer.parseInt(powers[i].trim());
+			if(power != 0)
+			{
+				resultingUnit = resultingUnit.times(BASE_UNITS[i].pow(power));
+			}
+		}
+		for(Unit<? extends Quantity> named : NAMED_UNITS)
+		{
+			if(named.getDimension().equals(resultingUnit.getDimension()))
+			{
+				return named;
+			}
+		}
+		return resultingUnit;
+	}
+}
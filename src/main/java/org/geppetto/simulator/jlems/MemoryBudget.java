@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems;
+
+/**
+ * An estimate of the memory retained by a simulator instance and the cap it has to stay under. The estimate counts the watched history, the spike
+ * events, the visual objects and the path maps with fixed per object sizes, it is meant to catch a session growing without bounds rather than to measure the heap.
+ */
+public class MemoryBudget
+{
+
+	public enum OverflowPolicy
+	{
+		/**
+		 * Halve the watched history and the rate at which it grows
+		 */
+		DECIMATE,
+		/**
+		 * Stop recording the watched history and the spike events and do not watch new variables
+		 */
+		REJECT,
+		/**
+		 * Keep only the latest values in the watch trees, the history goes to a {@link TieredHistoryStore}
+		 */
+		SPILL
+	}
+
+	// a PhysicalQuantity, its DoubleValue and the slot in the time series
+	public static final long BYTES_PER_SAMPLE = 64;
+	// a time and a value allocated in the memory tier of the history store
+	public static final long BYTES_PER_BUFFERED_SAMPLE = 16;
+	// the cell index and the time of a spike event
+	public static final long BYTES_PER_SPIKE_EVENT = 12;
+	// a cylinder or sphere node with its points and ids
+	public static final long BYTES_PER_VISUAL_OBJECT = 256;
+	// the entries of _lemsToGeppetto and _geppettoToLems, the strings are counted once
+	public static final long BYTES_PER_PATH_ENTRY = 2 * 48;
+
+	private long _cap = Long.MAX_VALUE;
+	private OverflowPolicy _policy = OverflowPolicy.DECIMATE;
+
+	private long _samples = 0;
+	private long _bufferedSamples = 0;
+	private long _spikeEvents = 0;
+	private long _visualObjects = 0;
+	private long _pathMapBytes = 0;
+
+	/**
+	 * @param bytes
+	 * @param policy
+	 */
+	public void setCap(long bytes, OverflowPolicy policy)
+	{
+		_cap = bytes;
+		_policy = policy;
+	}
+
+	/**
+	 * @return
+	 */
+	public long getCap()
+	{
+		return _cap;
+	}
+
+	/**
+	 * @return
+	 */
+	public OverflowPolicy getPolicy()
+	{
+		return _policy;
+	}
+
+	/**
+	 * @param samples
+	 *            the number of values in the watch trees
+	 */
+	public void setHistorySamples(long samples)
+	{
+		_samples = samples;
+	}
+
+	/**
+	 * @param bufferedSamples
+	 *            the number of values the memory tier of the history store has room for, see
+	 *            {@link TieredHistoryStore#getAllocatedSampleCount()}
+	 */
+	public void setBufferedSamples(long bufferedSamples)
+	{
+		_bufferedSamples = bufferedSamples;
+	}
+
+	/**
+	 * @param spikeEvents
+	 *            the number of events kept by the spike recorders
+	 */
+	public void setSpikeEvents(long spikeEvents)
+	{
+		_spikeEvents = spikeEvents;
+	}
+
+	/**
+	 * @param visualObjects
+	 *            the number of visual objects in the visualization trees
+	 */
+	public void setVisualObjects(long visualObjects)
+	{
+		_visualObjects = visualObjects;
+	}
+
+	/**
+	 * Accounts for a path added to the maps between LEMS and Geppetto paths
+	 * 
+	 * @param lemsPath
+	 * @param geppettoPath
+	 */
+	public void addPathEntry(String lemsPath, String geppettoPath)
+	{
+		_pathMapBytes += BYTES_PER_PATH_ENTRY + stringBytes(lemsPath) + stringBytes(geppettoPath);
+	}
+
+	/**
+	 * Forgets the path maps, when they are cleared
+	 */
+	public void clearPathEntries()
+	{
+		_pathMapBytes = 0;
+	}
+
+	private static long stringBytes(String s)
+	{
+		return 40 + 2L * s.length();
+	}
+
+	/**
+	 * @return
+	 */
+	public long getHistoryBytes()
+	{
+		return _samples * BYTES_PER_SAMPLE + _bufferedSamples * BYTES_PER_BUFFERED_SAMPLE;
+	}
+
+	/**
+	 * @return
+	 */
+	public long getSpikeEventBytes()
+	{
+		return _spikeEvents * BYTES_PER_SPIKE_EVENT;
+	}
+
+	/**
+	 * @return
+	 */
+	public long getVisualTreeBytes()
+	{
+		return _visualObjects * BYTES_PER_VISUAL_OBJECT;
+	}
+
+	/**
+	 * @return
+	 */
+	public long getPathMapBytes()
+	{
+		return _pathMapBytes;
+	}
+
+	/**
+	 * @return the estimated retained bytes
+	 */
+	public long getEstimatedBytes()
+	{
+		return getHistoryBytes() + getSpikeEventBytes() + getVisualTreeBytes() + getPathMapBytes();
+	}
+
+	/**
+	 * @return true if the estimate is over the cap
+	 */
+	public boolean isExceeded()
+	{
+		return getEstimatedBytes() > _cap;
+	}
+}
@@ -0,0 +1,344 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.neuroml.model.Morphology;
+import org.neuroml.model.Point3DWithDiam;
+import org.neuroml.model.Segment;
+
+/**
+ * Reduces the number of visual objects needed to draw a morphology. The simplified geometries of every morphology and level are computed once and shared by
+ * all the cells using that morphology object. Morphologies are told apart by identity, as ids are only unique within a document.
+ */
+public class MorphologySimplifier
+{
+
+	public enum LevelOfDetail
+	{
+		// one visual object per segment
+		FULL,
+		// unbranched segments pointing in the same direction are merged
+		MERGED,
+		// as MERGED, dropping the segments thinner than the minimum diameter
+		PRUNED,
+		// the whole cell becomes a sphere around its root segment
+		SOMA
+	}
+
+	private double _minCosine = Math.cos(Math.toRadians(10));
+	private double _minDiameter = 0.5;
+	// guarded by itself, FULL geometries map the segments one to one and are not cached
+	private Map<Morphology, Map<LevelOfDetail, List<SegmentGeometry>>> _cache = new IdentityHashMap<Morphology, Map<LevelOfDetail, List<SegmentGeometry>>>();
+
+	/**
+	 * The geometry of one visual object, it spans one or more consecutive segments and takes the id of the first one.
+	 */
+	public static class SegmentGeometry
+	{
+		private String _id;
+		private String _name;
+		private String _parentId;
+		private Point3DWithDiam _proximal;
+		private Point3DWithDiam _distal;
+
+		private SegmentGeometry(String id, String name, String parentId, Point3DWithDiam proximal, Point3DWithDiam distal)
+		{
+			_id = id;
+			_name = name;
+			_parentId = parentId;
+			_proximal = proximal;
+			_distal = distal;
+		}
+
+		public String getId()
+		{
+			return _id;
+		}
+
+		public String getName()
+		{
+			return _name;
+		}
+
+		public String getParentId()
+		{
+			return _parentId;
+		}
+
+		public Point3DWithDiam getProximal()
+		{
+			return _proximal;
+		}
+
+		public Point3DWithDiam getDistal()
+		{
+			return _distal;
+		}
+	}
+
+	/**
+	 * @param maxAngle
+	 *            the largest angle in degrees between two segments that can still be merged
+	 */
+	public void setMaxAngle(double maxAngle)
+	{
+		_minCosine = Math.cos(Math.toRadians(maxAngle));
+		clear();
+	}
+
+	/**
+	 * @param minDiameter
+	 *            segments thinner than this are dropped from the PRUNED level
+	 */
+	public void setMinDiameter(double minDiameter)
+	{
+		_minDiameter = minDiameter;
+		clear();
+	}
+
+	/**
+	 * Forgets the geometries computed so far
+	 */
+	public void clear()
+	{
+		synchronized(_cache)
+		{
+			_cache.clear();
+		}
+	}
+
+	/**
+	 * @param morphology
+	 * @param groups
+	 *            the groups every segment belongs to, segments are only merged if they belong to the same groups
+	 * @param level
+	 * @return the geometries for the given level, parents always come before their children
+	 */
+	public List<SegmentGeometry> simplify(Morphology morphology, SegmentGroupIndex groups, LevelOfDetail level)
+	{
+		if(level == LevelOfDetail.FULL)
+		{
+			return Collections.unmodifiableList(resolve(morphology.getSegment()));
+		}
+		Map<LevelOfDetail, List<SegmentGeometry>> levels;
+		synchronized(_cache)
+		{
+			levels = _cache.get(morphology);
+			if(levels == null)
+			{
+				levels = new EnumMap<LevelOfDetail, List<SegmentGeometry>>(LevelOfDetail.class);
+				_cache.put(morphology, levels);
+			}
+			List<SegmentGeometry> geometries = levels.get(level);
+			if(geometries != null)
+			{
+				return geometries;
+			}
+		}
+		List<SegmentGeometry> geometries;
+		switch(level)
+		{
+			case MERGED:
+				geometries = merge(morphology.getSegment(), groups);
+				break;
+			case PRUNED:
+				geometries = prune(merge(morphology.getSegment(), groups));
+				break;
+			default:
+				geometries = soma(morphology.getSegment());
+		}
+		geometries = Collections.unmodifiableList(geometries);
+		synchronized(_cache)
+		{
+			levels.put(level, geometries);
+		}
+		return geometries;
+	}
+
+	/**
+	 * @param segments
+	 * @return one geometry per segment, with the proximal point taken from the parent when the segment doesn't specify one
+	 */
+	private List<SegmentGeometry> resolve(List<Segment> segments)
+	{
+		List<SegmentGeometry> geometries = new ArrayList<SegmentGeometry>();
+		Map<String, Point3DWithDiam> distalPoints = new HashMap<String, Point3DWithDiam>();
+		for(Segment s : segments)
+		{
+			String parentId = getParentId(s);
+			Point3DWithDiam proximal = (s.getProximal() == null) ? distalPoints.get(parentId) : s.getProximal();
+			geometries.add(new SegmentGeometry(s.getId().toString(), s.getName(), parentId, proximal, s.getDistal()));
+			distalPoints.put(s.getId().toString(), s.getDistal());
+		}
+		return geometries;
+	}
+
+	/**
+	 * @param segments
+	 * @param groups
+	 * @return the geometries where every unbranched run of aligned segments belonging to the same groups is a single geometry
+	 */
+	private List<SegmentGeometry> merge(List<Segment> segments, SegmentGroupIndex groups)
+	{
+		Map<String, Integer> children = new HashMap<String, Integer>();
+		for(Segment s : segments)
+		{
+			String parentId = getParentId(s);
+			if(parentId != null)
+			{
+				Integer count = children.get(parentId);
+				children.put(parentId, count == null ? 1 : count + 1);
+			}
+		}
+
+		List<SegmentGeometry> geometries = new ArrayList<SegmentGeometry>();
+		// the geometry that ends with the distal point of each segment
+		Map<String, SegmentGeometry> endingIn = new HashMap<String, SegmentGeometry>();
+		for(SegmentGeometry g : resolve(segments))
+		{
+			SegmentGeometry parent = g.getParentId() == null ? null : endingIn.get(g.getParentId());
+			if(parent != null && children.get(g.getParentId()) == 1 && canMerge(parent, g, groups))
+			{
+				parent._distal = g.getDistal();
+				endingIn.put(g.getId(), parent);
+			}
+			else
+			{
+				SegmentGeometry geometry = new SegmentGeometry(g.getId(), g.getName(), parent == null ? g.getParentId() : parent.getId(), g.getProximal(), g.getDistal());
+				geometries.add(geometry);
+				endingIn.put(g.getId(), geometry);
+			}
+		}
+		return geometries;
+	}
+
+	/**
+	 * @param geometries
+	 * @return the geometries without the ones thinner than the minimum diameter and their descendants, roots are always kept
+	 */
+	private List<SegmentGeometry> prune(List<SegmentGeometry> geometries)
+	{
+		List<SegmentGeometry> pruned = new ArrayList<SegmentGeometry>();
+		Set<String> dropped = new HashSet<String>();
+		for(SegmentGeometry g : geometries)
+		{
+			boolean root = g.getParentId() == null;
+			if(!root && (dropped.contains(g.getParentId()) || getDiameter(g) < _minDiameter))
+			{
+				dropped.add(g.getId());
+			}
+			else
+			{
+				pruned.add(g);
+			}
+		}
+		return pruned;
+	}
+
+	/**
+	 * @param segments
+	 * @return a single point geometry on the root segment as wide as the root segment
+	 */
+	private List<SegmentGeometry> soma(List<Segment> segments)
+	{
+		List<SegmentGeometry> geometries = new ArrayList<SegmentGeometry>();
+		for(SegmentGeometry g : resolve(segments))
+		{
+			if(g.getParentId() == null)
+			{
+				Point3DWithDiam widest = g.getProximal() != null && g.getProximal().getDiameter() > g.getDistal().getDiameter() ? g.getProximal() : g.getDistal();
+				geometries.add(new SegmentGeometry(g.getId(), g.getName(), null, widest, widest));
+				break;
+			}
+		}
+		return geometries;
+	}
+
+	/**
+	 * @param parent
+	 * @param child
+	 * @param groups
+	 * @return true if the child continues the parent in the same direction and belongs to the same groups
+	 */
+	private boolean canMerge(SegmentGeometry parent, SegmentGeometry child, SegmentGroupIndex groups)
+	{
+		if(parent.getProximal() == null || child.getProximal() == null || !samePosition(parent.getDistal(), child.getProximal()))
+		{
+			return false;
+		}
+		if(!groups.inSameGroups(parent.getId(), child.getId()))
+		{
+			return false;
+		}
+		double[] a = direction(parent.getProximal(), parent.getDistal());
+		double[] b = direction(child.getProximal(), child.getDistal());
+		double lengths = Math.sqrt(a[0] * a[0] + a[1] * a[1] + a[2] * a[2]) * Math.sqrt(b[0] * b[0] + b[1] * b[1] + b[2] * b[2]);
+		if(lengths == 0)
+		{
+			// spheres are never merged
+			return false;
+		}
+		return (a[0] * b[0] + a[1] * b[1] + a[2] * b[2]) / lengths >= _minCosine;
+	}
+
+	private double[] direction(Point3DWithDiam from, Point3DWithDiam to)
+	{
+		return new double[] { to.getX() - from.getX(), to.getY() - from.getY(), to.getZ() - from.getZ() };
+	}
+
+	private boolean samePosition(Point3DWithDiam p1, Point3DWithDiam p2)
+	{
+		return p1.getX() == p2.getX() && p1.getY() == p2.getY() && p1.getZ() == p2.getZ();
+	}
+
+	private double getDiameter(SegmentGeometry g)
+	{
+		double proximal = g.getProximal() == null ? 0 : g.getProximal().getDiameter();
+		return Math.max(proximal, g.getDistal().getDiameter());
+	}
+
+	private String getParentId(Segment s)
+	{
+		return s.getParent() == null ? null : s.getParent().getSegment().toString();
+	}
+}
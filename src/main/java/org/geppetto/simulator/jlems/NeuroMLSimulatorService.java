@@ -117,6 +117,15 @@ public class NeuroMLSimulatorService extends ASimulator {
 		return true;
 	}
 
+	/**
+	 * @param parallelism
+	 *            the number of threads used to build the visualization tree
+	 *            of cells and populations
+	 */
+	public void setVisualTreeParallelism(int parallelism) {
+		populateVisualTree.setParallelism(parallelism);
+	}
+
 	@Override
 	public VariableList getForceableVariables() {
 		return new VariableList();
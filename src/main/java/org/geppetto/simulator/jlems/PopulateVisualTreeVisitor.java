@@ -34,12 +34,27 @@ package org.geppetto.simulator.jlems;
 
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.geppetto.core.common.GeppettoExecutionException;
+import org.geppetto.core.model.ModelInterpreterException;
 import org.geppetto.core.model.ModelWrapper;
 import org.geppetto.core.model.quantities.PhysicalQuantity;
 import org.geppetto.core.model.runtime.ACompositeNode;
@@ -57,6 +72,8 @@ import org.geppetto.core.model.runtime.VisualGroupNode;
 import org.geppetto.core.model.values.FloatValue;
 import org.geppetto.core.utilities.VariablePathSerializer;
 import org.geppetto.core.visualisation.model.Point;
+import org.geppetto.simulator.jlems.MorphologySimplifier.LevelOfDetail;
+import org.geppetto.simulator.jlems.MorphologySimplifier.SegmentGeometry;
 import org.neuroml.model.Base;
 import org.neuroml.model.BaseCell;
 import org.neuroml.model.Cell;
@@ -71,7 +88,6 @@ import org.neuroml.model.NeuroMLDocument;
 import org.neuroml.model.Point3DWithDiam;
 import org.neuroml.model.Population;
 import org.neuroml.model.PopulationTypes;
-import org.neuroml.model.Segment;
 import org.neuroml.model.SegmentGroup;
 
 /**
@@ -92,41 +108,163 @@ public class PopulateVisualTreeVisitor
 	private String SOMA = "soma_group";
 	private String AXONS = "axon_group";
 	private String DENDRITES = "dendrite_group";
+	private static final Pattern QUANTITY = Pattern.compile("\\s*([0-9-]*\\.?[0-9]*[eE]?[-+]?[0-9]+)?\\s*(\\w*)");
+
+	// parsed conductance strings, density groups by channel densities and densities by cell id
+	private Map<String, Conductance> conductances = new ConcurrentHashMap<String, Conductance>();
+	private ConcurrentMap<String, CompositeNode> densityGroups = new ConcurrentHashMap<String, CompositeNode>();
+	private Map<String, SegmentDensities> segmentDensities = new ConcurrentHashMap<String, SegmentDensities>();
+	// shared nodes already in the tree, they are only attached once
+	private Set<ANode> attachedShared = Collections.newSetFromMap(new IdentityHashMap<ANode, Boolean>());
+
+	// number of population instances built and attached together
+	private int chunkSize = 64;
+	private ChunkListener chunkListener = null;
+
+	// number of threads building cells and populations, 1 builds everything on the calling thread
+	private int parallelism = 1;
+
+	// detail used for the cells of network populations
+	private LevelOfDetail levelOfDetail = LevelOfDetail.FULL;
+	private MorphologySimplifier simplifier = new MorphologySimplifier();
+
+	// in lazy mode cells are added as placeholders and built when requested
+	private boolean lazy = false;
+	private int maxExpanded = 100;
+	private AtomicLong visualObjectCount = new AtomicLong();
+	private Map<String, LazyVisualObject> placeholders = new ConcurrentHashMap<String, LazyVisualObject>();
+	// access ordered, the first entry is the least recently requested
+	private Map<String, LazyVisualObject> expanded = new LinkedHashMap<String, LazyVisualObject>(16, 0.75f, true);
+	// the tree placeholders were created for, expanded cell regions go there like in the eager mode
+	private AspectSubTreeNode lazyVisualizationTree;
 
 	/**
-	 * @param allSegments
-	 * @param list
-	 * @param list2
+	 * Nodes built for a morphology, a cell or a slice of a population, in the order they have to be attached to the tree. A null entity id means the node goes
+	 * straight into the visualization tree.
+	 */
+	private static class VisualSubTree
+	{
+		private List<String> entityIds = new ArrayList<String>();
+		private List<ANode> nodes = new ArrayList<ANode>();
+
+		// nodes that other subtrees can contain too
+		private BitSet shared = new BitSet();
+
+		private void add(String entityId, ANode node)
+		{
+			entityIds.add(entityId);
+			nodes.add(node);
+		}
+
+		private void addShared(ANode node)
+		{
+			shared.set(nodes.size());
+			add(null, node);
+		}
+	}
+
+	/**
+	 * Told about every chunk of the visualization tree as soon as it is attached
+	 */
+	public interface ChunkListener
+	{
+		/**
+		 * @param modifiedTrees
+		 *            the visualization trees the chunk was added to
+		 * @throws GeppettoExecutionException
+		 */
+		void chunkAttached(Set<AspectSubTreeNode> modifiedTrees) throws GeppettoExecutionException;
+	}
+
+	/**
+	 * A parsed conductance density
+	 */
+	private static class Conductance
+	{
+		private float value;
+		private String unit;
+		private PhysicalQuantity quantity;
+
+		private Conductance(float value, String unit)
+		{
+			this.value = value;
+			this.unit = unit;
+			quantity = new PhysicalQuantity();
+			quantity.setValue(new FloatValue(value));
+			quantity.setUnit(unit);
+		}
+	}
+
+	/**
+	 * A cell whose morphology has not been built yet and the node it will be built into
+	 */
+	private static class LazyVisualObject
+	{
+		private Cell cell;
+		private CompositeNode placeholder;
+		// the detail the cell would have been built with eagerly
+		private LevelOfDetail level;
+		// while expanded, the cell regions attached to the visualization tree and the number of visual objects built
+		private List<ANode> cellParts = new ArrayList<ANode>();
+		private long visualObjects;
+
+		private LazyVisualObject(Cell cell, CompositeNode placeholder, LevelOfDetail level)
+		{
+			this.cell = cell;
+			this.placeholder = placeholder;
+			this.level = level;
+		}
+	}
+
+	/**
+	 * Builds a subtree without touching the visualization tree, so that it can run on any thread.
+	 */
+	private abstract static class SubTreeBuilder implements Callable<VisualSubTree>
+	{
+		@Override
+		public abstract VisualSubTree call();
+	}
+
+	/**
+	 * @return
+	 */
+	public int getParallelism()
+	{
+		return parallelism;
+	}
+
+	/**
+	 * @param parallelism
+	 *            the number of threads used to build cells and populations, the subtrees are always attached in document order
+	 */
+	public void setParallelism(int parallelism)
+	{
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * @param morphology
+	 * @param groups
 	 * @param id
+	 * @param level
 	 * @return
 	 */
-	private CompositeNode getVisualObjectsFromListOfSegments(List<Segment> segments, Map<String, List<String>> segmentsMap, String id)
+	private CompositeNode getVisualObjectsFromListOfSegments(Morphology morphology, SegmentGroupIndex groups, String id, LevelOfDetail level)
 	{
 		CompositeNode groupNode = new CompositeNode(id);
-		Map<String, Point3DWithDiam> distalPoints = new HashMap<String, Point3DWithDiam>();
-		for(Segment s : segments)
+		for(SegmentGeometry g : simplifier.simplify(morphology, groups, level))
 		{
-			String idSegmentParent = null;
-			Point3DWithDiam parentDistal = null;
-			if(s.getParent() != null)
-			{
-				idSegmentParent = s.getParent().getSegment().toString();
-			}
-			if(distalPoints.containsKey(idSegmentParent))
-			{
-				parentDistal = distalPoints.get(idSegmentParent);
-			}
-			groupNode.setName(idSegmentParent);
-			AVisualObjectNode cyl = getCylinderFromSegment(s, parentDistal);
+			groupNode.setName(g.getParentId());
+			AVisualObjectNode cyl = getVisualObjectFromGeometry(g);
 
-			if(segmentsMap.containsKey(cyl.getId()))
+			List<String> segmentGroups = groups.getGroups(cyl.getId());
+			if(!segmentGroups.isEmpty())
 			{
 				// get groups list for segment and put it in visual objects
-				cyl.setGroupElementsMap(segmentsMap.get(cyl.getId()));
+				cyl.setGroupElementsMap(segmentGroups);
 			}
 
 			groupNode.addChild(cyl);
-			distalPoints.put(s.getId().toString(), s.getDistal());
 		}
 
 		return groupNode;
@@ -137,21 +275,44 @@ public class PopulateVisualTreeVisitor
 	 * 
 	 * @param neuroml
 	 * @return
+	 * @throws ModelInterpreterException 
 	 */
-	public void createNodesFromNeuroMLDocument(AspectSubTreeNode visualizationTree, NeuroMLDocument neuroml)
+	public void createNodesFromNeuroMLDocument(AspectSubTreeNode visualizationTree, NeuroMLDocument neuroml) throws ModelInterpreterException
 	{
+		List<SubTreeBuilder> builders = new ArrayList<SubTreeBuilder>();
+		synchronized(this)
+		{
+			placeholders.clear();
+			expanded.clear();
+			lazyVisualizationTree = visualizationTree;
+			visualObjectCount.set(0);
+		}
+		simplifier.clear();
+		conductances.clear();
+		densityGroups.clear();
+		segmentDensities.clear();
+		attachedShared.clear();
+
 		//Find morphologies inside neuroml document
 		List<Morphology> morphologies = neuroml.getMorphology();
 		if(morphologies != null)
 		{
-			for(Morphology m : morphologies)
+			for(final Morphology m : morphologies)
 			{
-				//create visual groups for regions, and creates a map with 
-				//objects pointing to groups they are part of
-				Map<String, List<String>> segmentsMap = this.createCellPartsVisualGroups(m.getSegmentGroup(), visualizationTree);
-				ANode node = getVisualObjectsFromListOfSegments(m.getSegment(),segmentsMap, m.getId());
-				//add nodes for morphology to visualization tree
-				visualizationTree.addChild(node);
+				builders.add(new SubTreeBuilder()
+				{
+					@Override
+					public VisualSubTree call()
+					{
+						VisualSubTree subTree = new VisualSubTree();
+						//create visual groups for regions, and creates a map with 
+						//objects pointing to groups they are part of
+						SegmentGroupIndex groups = createCellPartsVisualGroups(m, subTree);
+						//add nodes for morphology to visualization tree
+						subTree.add(null, getVisualObjectsFromListOfSegments(m, groups, m.getId(), LevelOfDetail.FULL));
+						return subTree;
+					}
+				});
 			}
 		}
 		
@@ -159,53 +320,217 @@ public class PopulateVisualTreeVisitor
 		List<Cell> cells = neuroml.getCell();
 		if(cells != null)
 		{
-			for(Cell c : cells)
+			for(final Cell c : cells)
 			{
-				Map<String, List<String>> segmentsMap = this.createCellPartsVisualGroups(c.getMorphology().getSegmentGroup(), visualizationTree);
-				//create density groups for each cell, if it has some
-				CompositeNode densities = this.createChannelDensities(c);
-				//create nodes for visual objects, segments of cell
-				CompositeNode nodes = createNodesFromMorphologyBySegmentGroup(segmentsMap, c);
-				if(densities !=null){
-					//add density groups to visualization tree
-					visualizationTree.addChild(densities);
+				builders.add(new SubTreeBuilder()
+				{
+					@Override
+					public VisualSubTree call()
+					{
+						VisualSubTree subTree = new VisualSubTree();
+						//create density groups for each cell, if it has some
+						CompositeNode densities = createChannelDensities(c);
+						//create nodes for visual objects, segments of cell
+						CompositeNode nodes = null;
+						SegmentGroupIndex groups = null;
+						if(lazy)
+						{
+							nodes = createPlaceholder(c.getId(), c, LevelOfDetail.FULL);
+							groups = new SegmentGroupIndex(c.getMorphology());
+						}
+						else
+						{
+							groups = createCellPartsVisualGroups(c.getMorphology(), subTree);
+							nodes = createNodesFromMorphologyBySegmentGroup(groups, c, LevelOfDetail.FULL);
+						}
+						createSegmentDensities(c, groups);
+						if(densities != null)
+						{
+							//add density groups to visualization tree
+							subTree.addShared(densities);
+						}
+						//add visual nodes to visualization tree
+						subTree.add(null, nodes);
+						return subTree;
+					}
+				});
+			}
+		}
+
+		// a single pool builds the cells and every batch of the networks, with a parallelism of 1 everything is built on this thread
+		ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+		try
+		{
+			buildAndAttach(builders, visualizationTree, visualizationTree, (AspectNode) visualizationTree.getParent(), pool);
+
+			//find networks inside neuroml document
+			List<Network> networks = neuroml.getNetwork();
+			if(networks.size() == 1)
+			{
+				addNetworkTo(networks.get(0), visualizationTree, (AspectNode) visualizationTree.getParent(), pool);
+			}
+			else
+			{
+				for(Network n : networks)
+				{
+					CompositeNode networkNode = new CompositeNode(n.getId(), n.getId());
+					addNetworkTo(networks.get(0), networkNode, (AspectNode) visualizationTree.getParent(), pool);
 				}
-				//add visual nodes to visualization tree
-				visualizationTree.addChild(nodes);
 			}
 		}
-		
-		//find networks inside neuroml document
-		List<Network> networks = neuroml.getNetwork();
-		if(networks.size() == 1)
+		finally
 		{
-			addNetworkTo(networks.get(0), visualizationTree, (AspectNode) visualizationTree.getParent());
+			if(pool != null)
+			{
+				pool.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Runs the builders, on the fork-join pool of the populate pass when there is one, and returns the subtrees in the same order as the builders.
+	 * 
+	 * @param builders
+	 * @param pool
+	 *            null to run the builders on the calling thread
+	 * @return
+	 * @throws ModelInterpreterException
+	 */
+	private List<VisualSubTree> build(List<SubTreeBuilder> builders, ForkJoinPool pool) throws ModelInterpreterException
+	{
+		List<VisualSubTree> subTrees = new ArrayList<VisualSubTree>();
+		if(pool != null && builders.size() > 1)
+		{
+			try
+			{
+				for(Future<VisualSubTree> subTree : pool.invokeAll(builders))
+				{
+					subTrees.add(subTree.get());
+				}
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new ModelInterpreterException(e);
+			}
+			catch(ExecutionException e)
+			{
+				throw new ModelInterpreterException(e.getCause());
+			}
 		}
 		else
 		{
-			for(Network n : networks)
+			for(SubTreeBuilder builder : builders)
 			{
-				CompositeNode networkNode = new CompositeNode(n.getId(), n.getId());
-				addNetworkTo(networks.get(0), networkNode, (AspectNode) visualizationTree.getParent());
+				try
+				{
+					subTrees.add(builder.call());
+				}
+				catch(IllegalArgumentException e)
+				{
+					// an invalid model fails the same way as on the pool
+					throw new ModelInterpreterException(e);
+				}
 			}
 		}
+		return subTrees;
+	}
+
+	/**
+	 * Builds and attaches the subtrees in order. Without a chunk listener all the subtrees are built before attaching them, with one they are built a batch at
+	 * a time and the listener is told about every subtree as soon as it is attached.
+	 * 
+	 * @param builders
+	 * @param visualizationTree
+	 * @param parent
+	 * @param aspect
+	 * @param pool
+	 *            the pool of the populate pass, reused by every batch
+	 * @throws ModelInterpreterException
+	 */
+	private void buildAndAttach(List<SubTreeBuilder> builders, AspectSubTreeNode visualizationTree, ACompositeNode parent, AspectNode aspect, ForkJoinPool pool)
+			throws ModelInterpreterException
+	{
+		int batch = chunkListener == null ? builders.size() : parallelism;
+		for(int from = 0; from < builders.size(); from += batch)
+		{
+			for(VisualSubTree subTree : build(builders.subList(from, Math.min(from + batch, builders.size())), pool))
+			{
+				Set<AspectSubTreeNode> modifiedTrees = attach(subTree, visualizationTree, parent, aspect);
+				if(chunkListener != null)
+				{
+					try
+					{
+						chunkListener.chunkAttached(modifiedTrees);
+					}
+					catch(GeppettoExecutionException e)
+					{
+						throw new ModelInterpreterException(e);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Attaches a built subtree. Nodes without an entity id go to the visualization tree, the others to the visualization tree of the matching sub entity or
+	 * to the parent node.
+	 * 
+	 * @param subTree
+	 * @param visualizationTree
+	 * @param parent
+	 * @param aspect
+	 * @return the visualization trees that received new nodes
+	 */
+	private Set<AspectSubTreeNode> attach(VisualSubTree subTree, AspectSubTreeNode visualizationTree, ACompositeNode parent, AspectNode aspect)
+	{
+		Set<AspectSubTreeNode> modifiedTrees = new LinkedHashSet<AspectSubTreeNode>();
+		for(int i = 0; i < subTree.nodes.size(); i++)
+		{
+			String entityId = subTree.entityIds.get(i);
+			if(subTree.shared.get(i) && !attachedShared.add(subTree.nodes.get(i)))
+			{
+				// shared with a subtree attached before
+				continue;
+			}
+			if(entityId == null)
+			{
+				visualizationTree.addChild(subTree.nodes.get(i));
+				modifiedTrees.add(visualizationTree);
+			}
+			else
+			{
+				ACompositeNode tree = addVisualObjectToVizTree(entityId, subTree.nodes.get(i), parent, aspect, (ModelWrapper) aspect.getModel());
+				if(tree instanceof AspectSubTreeNode)
+				{
+					modifiedTrees.add((AspectSubTreeNode) tree);
+				}
+			}
+		}
+		return modifiedTrees;
 	}
 
 	/**
 	 * @param c
 	 * @param id
+	 * @param entityId
+	 * @param subTree
 	 * @param location 
 	 * @return
 	 */
-	private ANode getVisualObjectForCell(BaseCell c, String id,AspectSubTreeNode visualizationTree, Point location)
+	private ANode getVisualObjectForCell(BaseCell c, String id, String entityId, VisualSubTree subTree, Point location)
 	{
 		ANode visObject = null;
-		if(c instanceof Cell){
+		if(c instanceof Cell && lazy){
+			visObject = createPlaceholder(entityId, (Cell) c, levelOfDetail);
+		}
+		else if(c instanceof Cell){
 			Cell cell = (Cell) c;
-			Map<String, List<String>> segmentsMap = this.createCellPartsVisualGroups(cell.getMorphology().getSegmentGroup(), visualizationTree);
-			visObject = createNodesFromMorphologyBySegmentGroup(segmentsMap, cell);
+			SegmentGroupIndex groups = this.createCellPartsVisualGroups(cell.getMorphology(), subTree);
+			visObject = createNodesFromMorphologyBySegmentGroup(groups, cell, levelOfDetail);
 		}
 		else{
+			visualObjectCount.incrementAndGet();
 			visObject = new SphereNode(id);
 			((SphereNode) visObject).setRadius(1d);
 			Point origin = null;
@@ -229,47 +554,226 @@ public class PopulateVisualTreeVisitor
 	 * @param n
 	 * @param composite
 	 * @param visualizationTree
+	 * @param pool
+	 * @throws ModelInterpreterException 
 	 */
-	private void addNetworkTo(Network n, ACompositeNode parent, AspectNode aspect)
+	private void addNetworkTo(Network n, ACompositeNode parent, AspectNode aspect, ForkJoinPool pool) throws ModelInterpreterException
 	{
-		for(Population p : n.getPopulation())
+		ModelWrapper model = (ModelWrapper) aspect.getModel();
+		List<SubTreeBuilder> builders = new ArrayList<SubTreeBuilder>();
+		for(final Population p : n.getPopulation())
 		{
-			ModelWrapper model = (ModelWrapper) aspect.getModel();
 			// the components have already been read by the model interpreter and stored inside a map in the ModelWrapper
-			BaseCell cell = getNeuroMLComponent(p.getComponent(), model);
+			final BaseCell cell = getNeuroMLComponent(p.getComponent(), model);
 
 			if(p.getType() != null && p.getType().equals(PopulationTypes.POPULATION_LIST))
 			{
-				
-				int i = 0;
-				for(Instance instance : p.getInstance())
+				final List<Instance> instances = p.getInstance();
+				for(int from = 0; from < instances.size(); from += chunkSize)
 				{
-					Point location =  null;
-					if(instance.getLocation()!=null){
-						location = getPoint(instance.getLocation());
-					}
-					AspectSubTreeNode visualizationTree = aspect.getSubTree(AspectTreeType.VISUALIZATION_TREE);
-					//create visual object for this instance
-					ANode visualObject = getVisualObjectForCell(cell, p.getId(),visualizationTree, location);
-					//add visual object to appropriate sub entity  
-					addVisualObjectToVizTree(VariablePathSerializer.getArrayName(p.getId(), i), visualObject, parent, aspect, model);
-					i++;
+					final int start = from;
+					final int end = Math.min(from + chunkSize, instances.size());
+					builders.add(new SubTreeBuilder()
+					{
+						@Override
+						public VisualSubTree call()
+						{
+							VisualSubTree subTree = new VisualSubTree();
+							for(int i = start; i < end; i++)
+							{
+								Instance instance = instances.get(i);
+								Point location = null;
+								if(instance.getLocation() != null)
+								{
+									location = getPoint(instance.getLocation());
+								}
+								String entityId = VariablePathSerializer.getArrayName(p.getId(), i);
+								//create visual object for this instance
+								ANode visualObject = getVisualObjectForCell(cell, p.getId(), entityId, subTree, location);
+								//add visual object to appropriate sub entity  
+								subTree.add(entityId, visualObject);
+							}
+							return subTree;
+						}
+					});
 				}
 			}
 			else
 			{
 				int size = p.getSize().intValue();
-
-				for(int i = 0; i < size; i++)
+				for(int from = 0; from < size; from += chunkSize)
 				{
-					// FIXME the position of the population within the network needs to be specified in neuroml
-					AspectSubTreeNode visualizationTree = aspect.getSubTree(AspectTreeType.VISUALIZATION_TREE);
-					ANode visualObject = getVisualObjectForCell(cell, cell.getId(),visualizationTree,null);
-					addVisualObjectToVizTree(VariablePathSerializer.getArrayName(p.getId(), i), visualObject, parent, aspect, model);
+					final int start = from;
+					final int end = Math.min(from + chunkSize, size);
+					builders.add(new SubTreeBuilder()
+					{
+						@Override
+						public VisualSubTree call()
+						{
+							VisualSubTree subTree = new VisualSubTree();
+							for(int i = start; i < end; i++)
+							{
+								// FIXME the position of the population within the network needs to be specified in neuroml
+								String entityId = VariablePathSerializer.getArrayName(p.getId(), i);
+								ANode visualObject = getVisualObjectForCell(cell, cell.getId(), entityId, subTree, null);
+								subTree.add(entityId, visualObject);
+							}
+							return subTree;
+						}
+					});
 				}
 			}
 		}
 
+		buildAndAttach(builders, aspect.getSubTree(AspectTreeType.VISUALIZATION_TREE), parent, aspect, pool);
+	}
+
+	/**
+	 * Creates an empty node standing for the morphology of a cell, its segments are only built when the node is expanded.
+	 * 
+	 * @param id
+	 *            the id the placeholder can be expanded with
+	 * @param cell
+	 * @param level
+	 *            the detail the cell is built with when the node is expanded
+	 * @return
+	 */
+	private CompositeNode createPlaceholder(String id, Cell cell, LevelOfDetail level)
+	{
+		CompositeNode placeholder = new CompositeNode(cell.getId());
+		placeholder.setName(cell.getId());
+		placeholders.put(id, new LazyVisualObject(cell, placeholder, level));
+		return placeholder;
+	}
+
+	/**
+	 * Builds the morphology behind a placeholder created in lazy mode, with the level of detail the eager mode would have used. Expanded placeholders are
+	 * kept until more than the maximum number of them is expanded, at which point the least recently requested ones are emptied again.
+	 * 
+	 * @param id
+	 *            the cell id, or the array name of the population instance, e.g. hhpop[0]
+	 * @return the nodes whose children changed, empty if there is no placeholder for the id or it was already expanded
+	 */
+	public synchronized List<ACompositeNode> expand(String id)
+	{
+		List<ACompositeNode> changed = new ArrayList<ACompositeNode>();
+		LazyVisualObject lazyObject = placeholders.get(id);
+		if(lazyObject == null || expanded.get(id) != null)
+		{
+			return changed;
+		}
+
+		long before = visualObjectCount.get();
+		VisualSubTree subTree = new VisualSubTree();
+		SegmentGroupIndex groups = createCellPartsVisualGroups(lazyObject.cell.getMorphology(), subTree);
+		CompositeNode cellNode = createNodesFromMorphologyBySegmentGroup(groups, lazyObject.cell, lazyObject.level);
+		lazyObject.visualObjects = visualObjectCount.get() - before;
+		for(ANode node : subTree.nodes)
+		{
+			// the cell regions go straight into the visualization tree, as they do when the cell is built eagerly
+			lazyVisualizationTree.addChild(node);
+			lazyObject.cellParts.add(node);
+		}
+		if(!subTree.nodes.isEmpty())
+		{
+			lazyVisualizationTree.setModified(true);
+			changed.add(lazyVisualizationTree);
+		}
+		for(ANode node : new ArrayList<ANode>(cellNode.getChildren()))
+		{
+			lazyObject.placeholder.addChild(node);
+		}
+		lazyObject.placeholder.setModified(true);
+		changed.add(lazyObject.placeholder);
+
+		expanded.put(id, lazyObject);
+		while(expanded.size() > maxExpanded)
+		{
+			Map.Entry<String, LazyVisualObject> eldest = expanded.entrySet().iterator().next();
+			expanded.remove(eldest.getKey());
+			collapse(eldest.getValue(), changed);
+		}
+		return changed;
+	}
+
+	/**
+	 * Empties an expanded placeholder again and takes its visual objects out of the count.
+	 * 
+	 * @param lazyObject
+	 * @param changed
+	 *            the nodes whose children changed
+	 */
+	private void collapse(LazyVisualObject lazyObject, List<ACompositeNode> changed)
+	{
+		lazyObject.placeholder.getChildren().clear();
+		lazyObject.placeholder.setModified(true);
+		changed.add(lazyObject.placeholder);
+		if(!lazyObject.cellParts.isEmpty())
+		{
+			lazyVisualizationTree.getChildren().removeAll(lazyObject.cellParts);
+			lazyVisualizationTree.setModified(true);
+			if(!changed.contains(lazyVisualizationTree))
+			{
+				changed.add(lazyVisualizationTree);
+			}
+			lazyObject.cellParts.clear();
+		}
+		visualObjectCount.addAndGet(-lazyObject.visualObjects);
+		lazyObject.visualObjects = 0;
+	}
+
+	/**
+	 * @param chunkListener
+	 *            if not null the visualization tree is emitted in chunks, every cell and every chunk of a population is passed to the listener as soon as it
+	 *            is attached
+	 * @param chunkSize
+	 *            the number of population instances in a chunk
+	 */
+	public void setChunkListener(ChunkListener chunkListener, int chunkSize)
+	{
+		this.chunkListener = chunkListener;
+		this.chunkSize = Math.max(1, chunkSize);
+	}
+
+	/**
+	 * @param levelOfDetail
+	 *            the detail used to draw the cells of network populations, single cells and morphologies are always drawn in full
+	 * @param maxAngle
+	 *            the largest angle in degrees between two segments that can be merged
+	 * @param minDiameter
+	 *            the diameter below which segments are dropped
+	 */
+	public void setLevelOfDetail(LevelOfDetail levelOfDetail, double maxAngle, double minDiameter)
+	{
+		this.levelOfDetail = levelOfDetail;
+		simplifier.setMaxAngle(maxAngle);
+		simplifier.setMinDiameter(minDiameter);
+	}
+
+	/**
+	 * @return the number of visual objects built for the current document, placeholders and emptied placeholders not included
+	 */
+	public long getVisualObjectCount()
+	{
+		return visualObjectCount.get();
+	}
+
+	/**
+	 * @param lazy
+	 *            if true cells are added as empty placeholders and their segments are built on request through {@link #expand(String)}
+	 */
+	public void setLazy(boolean lazy)
+	{
+		this.lazy = lazy;
+	}
+
+	/**
+	 * @param maxExpanded
+	 *            the number of placeholders that can be expanded at the same time
+	 */
+	public synchronized void setMaxExpanded(int maxExpanded)
+	{
+		this.maxExpanded = Math.max(1, maxExpanded);
 	}
 
 	/**
@@ -293,11 +797,13 @@ public class PopulateVisualTreeVisitor
 	 * @param composite
 	 * @param aspect
 	 * @param model
+	 * @return the node the visual object was added to or the visualization tree containing it
 	 */
-	private void addVisualObjectToVizTree(String id, ANode visualObject, ACompositeNode composite, AspectNode aspect, ModelWrapper model)
+	private ACompositeNode addVisualObjectToVizTree(String id, ANode visualObject, ACompositeNode composite, AspectNode aspect, ModelWrapper model)
 	{
 
 		Map<String, EntityNode> entitiesMapping = (Map<String, EntityNode>) model.getModel("entitiesMapping");
+		ACompositeNode modified = composite;
 		if(entitiesMapping.containsKey(id))
 		{
 			EntityNode e = entitiesMapping.get(id);
@@ -307,6 +813,7 @@ public class PopulateVisualTreeVisitor
 				{
 					// we are in the same aspect of the subentity, now we can fetch the visualization tree
 					AspectSubTreeNode subEntityVizTree = a.getSubTree(AspectTreeType.VISUALIZATION_TREE);
+					modified = subEntityVizTree;
 					if(composite instanceof AspectSubTreeNode)
 					{
 						subEntityVizTree.addChild(visualObject);
@@ -322,7 +829,7 @@ public class PopulateVisualTreeVisitor
 		{
 			composite.addChild(visualObject);
 		}
-
+		return modified;
 	}
 
 	/**
@@ -383,15 +890,21 @@ public class PopulateVisualTreeVisitor
 	 * @param location 
 	 * @param visualizationTree
 	 * @param list
+	 * @param level
 	 * @return
 	 */
-	private CompositeNode createNodesFromMorphologyBySegmentGroup(Map<String, List<String>>segmentsMap,Cell cell)
+	private CompositeNode createNodesFromMorphologyBySegmentGroup(SegmentGroupIndex groups,Cell cell, LevelOfDetail level)
 	{
 		CompositeNode visualCellNode = new CompositeNode(cell.getId());		
 
 		Morphology cellmorphology = cell.getMorphology();		
-		CompositeNode allSegments = getVisualObjectsFromListOfSegments(cellmorphology.getSegment(),
-										segmentsMap, cellmorphology.getId());				
+		CompositeNode allSegments = getVisualObjectsFromListOfSegments(cellmorphology,
+										groups, cellmorphology.getId(), level);				
+		Map<String, AVisualObjectNode> segmentsById = new HashMap<String, AVisualObjectNode>();
+		for(ANode segment : allSegments.getChildren())
+		{
+			segmentsById.put(segment.getId(), (AVisualObjectNode) segment);
+		}
 
 		Map<String, List<AVisualObjectNode>> segmentGeometries = new HashMap<String, List<AVisualObjectNode>>();
 
@@ -411,7 +924,7 @@ public class PopulateVisualTreeVisitor
 				}
 				if(!sg.getMember().isEmpty())
 				{
-					segmentGeometries.put(sg.getId(), getVisualObjectsForGroup(sg, allSegments));
+					segmentGeometries.put(sg.getId(), getVisualObjectsForGroup(sg, segmentsById));
 				}
 			}
 			for(String sg : segmentGeometries.keySet())
@@ -440,105 +953,157 @@ public class PopulateVisualTreeVisitor
 	}
 	
 	/**
-	 * Create Channel densities visual grups for a cell
+	 * Create Channel densities visual grups for a cell. Cells with the same channel densities share the same groups, the node is only added to the tree the
+	 * first time it is returned.
 	 * 
 	 * @param cell - Densities visual groups for this cell
 	 * @return
 	 */
 	private CompositeNode createChannelDensities(Cell cell){
 		
-		Map<String, VisualGroupNode> groupsMap = new HashMap<String,VisualGroupNode>();
+		if(cell.getBiophysicalProperties() == null || cell.getBiophysicalProperties().getMembraneProperties() == null
+				|| cell.getBiophysicalProperties().getMembraneProperties().getChannelDensity() == null)
+		{
+			return null;
+		}
 
-		CompositeNode densities = null;
-		
-		if(cell.getBiophysicalProperties() != null && cell.getBiophysicalProperties().getMembraneProperties() != null
-				&& cell.getBiophysicalProperties().getMembraneProperties().getChannelDensity() != null)
+		List<ChannelDensity> channelDensities = cell.getBiophysicalProperties().getMembraneProperties().getChannelDensity();
+		String signature = getSignature(channelDensities);
+		CompositeNode densities = densityGroups.get(signature);
+		if(densities != null)
 		{
-			densities = new CompositeNode("ChannelDensities");
-			densities.setName("Channel Densities");
-			
-			for(ChannelDensity density : cell.getBiophysicalProperties().getMembraneProperties().getChannelDensity()){
-				if(!groupsMap.containsKey(density.getIonChannel())){
-					VisualGroupNode vis = new VisualGroupNode(density.getIonChannel());
-					vis.setName(density.getIonChannel());
-					vis.setType(type);
-					vis.setHighSpectrumColor(highSpectrum);
-					vis.setLowSpectrumColor(lowSpectrum);
-					vis.setParent(densities);
-					if(!density.getId().equals("Leak_all")){
-						VisualGroupElementNode element = new VisualGroupElementNode(density.getSegmentGroup());
-						element.setName(density.getId());
-
-						String regExp = "\\s*([0-9-]*\\.?[0-9]*[eE]?[-+]?[0-9]+)?\\s*(\\w*)";
-						Pattern pattern = Pattern.compile(regExp);
-						Matcher matcher = pattern.matcher(density.getCondDensity());
-						if(matcher.find()){
-							PhysicalQuantity physicalQuantity = new PhysicalQuantity();
-							physicalQuantity.setValue(new FloatValue(Float.parseFloat(matcher.group(1))));
-							physicalQuantity.setUnit(matcher.group(2));
-							element.setParameter(physicalQuantity);
-						}
+			return densities;
+		}
 
-						element.setParent(vis);
-						element.setDefaultColor(defaultColor);
-						vis.getVisualGroupElements().add(element);
-					}
+		Map<String, VisualGroupNode> groupsMap = new HashMap<String,VisualGroupNode>();
+		densities = new CompositeNode("ChannelDensities");
+		densities.setName("Channel Densities");
+		
+		for(ChannelDensity density : channelDensities){
+			VisualGroupNode vis = groupsMap.get(density.getIonChannel());
+			if(vis == null){
+				vis = new VisualGroupNode(density.getIonChannel());
+				vis.setName(density.getIonChannel());
+				vis.setType(type);
+				vis.setHighSpectrumColor(highSpectrum);
+				vis.setLowSpectrumColor(lowSpectrum);
+				vis.setParent(densities);
+				densities.addChild(vis);
+				groupsMap.put(density.getIonChannel(), vis);
+			}
+
+			if(!density.getId().equals("Leak_all")){
+				VisualGroupElementNode element = new VisualGroupElementNode(density.getSegmentGroup());
+				element.setName(density.getId());
 
-					densities.addChild(vis);
-					groupsMap.put(density.getIonChannel(), vis);
+				Conductance conductance = getConductance(density.getCondDensity());
+				if(conductance != null){
+					element.setParameter(conductance.quantity);
 				}
-				else{
-					VisualGroupNode vis = groupsMap.get(density.getIonChannel());
-
-					if(!density.getId().equals("Leak_all")){
-						VisualGroupElementNode element = new VisualGroupElementNode(density.getSegmentGroup());
-						element.setName(density.getId());
-
-						String regExp = "\\s*([0-9-]*\\.?[0-9]*[eE]?[-+]?[0-9]+)?\\s*(\\w*)";
-						Pattern pattern = Pattern.compile(regExp);
-						Matcher matcher = pattern.matcher(density.getCondDensity());
-						if(matcher.find()){
-							PhysicalQuantity physicalQuantity = new PhysicalQuantity();
-							physicalQuantity.setValue(new FloatValue(Float.parseFloat(matcher.group(1))));
-							physicalQuantity.setUnit(matcher.group(2));
-							element.setParameter(physicalQuantity);
-						}
 
-						element.setParent(vis);
-						element.setDefaultColor(defaultColor);
-						vis.getVisualGroupElements().add(element);
-					}
+				element.setParent(vis);
+				element.setDefaultColor(defaultColor);
+				vis.getVisualGroupElements().add(element);
+			}
+		}
 
+		CompositeNode existing = densityGroups.putIfAbsent(signature, densities);
+		return existing == null ? densities : existing;
+	}
 
-					densities.addChild(vis);
-					groupsMap.put(density.getIonChannel(), vis);
-				}
+	/**
+	 * @param channelDensities
+	 * @return a string that is the same for lists of equal channel densities
+	 */
+	private String getSignature(List<ChannelDensity> channelDensities)
+	{
+		StringBuilder signature = new StringBuilder();
+		for(ChannelDensity density : channelDensities)
+		{
+			signature.append(density.getId()).append('|').append(density.getIonChannel()).append('|');
+			signature.append(density.getSegmentGroup()).append('|').append(density.getCondDensity()).append(';');
+		}
+		return signature.toString();
+	}
+
+	/**
+	 * Parses a conductance density, every distinct string is only parsed once
+	 * 
+	 * @param condDensity
+	 *            e.g. 120.0 mS_per_cm2
+	 * @return null if the string doesn't start with a number
+	 */
+	private Conductance getConductance(String condDensity)
+	{
+		if(condDensity == null)
+		{
+			return null;
+		}
+		Conductance conductance = conductances.get(condDensity);
+		if(conductance == null)
+		{
+			Matcher matcher = QUANTITY.matcher(condDensity);
+			if(matcher.find() && matcher.group(1) != null)
+			{
+				conductance = new Conductance(Float.parseFloat(matcher.group(1)), matcher.group(2));
+				conductances.put(condDensity, conductance);
 			}
 		}
-		
-		return densities;
+		return conductance;
+	}
+
+	/**
+	 * Computes the density of every channel on every segment of a cell. A channel density without a segment group applies to all the segments.
+	 * 
+	 * @param cell
+	 * @param groups
+	 */
+	private void createSegmentDensities(Cell cell, SegmentGroupIndex groups)
+	{
+		if(cell.getBiophysicalProperties() == null || cell.getBiophysicalProperties().getMembraneProperties() == null
+				|| cell.getBiophysicalProperties().getMembraneProperties().getChannelDensity() == null)
+		{
+			return;
+		}
+		SegmentDensities densities = new SegmentDensities(groups);
+		BitSet all = new BitSet();
+		all.set(0, groups.getSegmentCount());
+		for(ChannelDensity density : cell.getBiophysicalProperties().getMembraneProperties().getChannelDensity())
+		{
+			Conductance conductance = getConductance(density.getCondDensity());
+			if(conductance != null)
+			{
+				BitSet segments = density.getSegmentGroup() == null ? all : groups.getSegments(density.getSegmentGroup());
+				densities.set(density.getIonChannel(), segments, conductance.value, conductance.unit);
+			}
+		}
+		segmentDensities.put(cell.getId(), densities);
+	}
+
+	/**
+	 * @param cellId
+	 * @return the density of every channel on every segment of the cell, null if the cell has no channel densities
+	 */
+	public SegmentDensities getSegmentDensities(String cellId)
+	{
+		return segmentDensities.get(cellId);
 	}
 	
 	/**
-	 * Gets all segments group from cell. Creates a map with segments as key of map, and 
-	 * list of groups it belongs as value. Creates visual groups for cell regions while looping
+	 * Gets all segments group from cell and indexes the groups every segment belongs to. Creates visual groups for cell regions while looping
 	 * through segment groups. 
 	 * 
-	 * @param segmentsGroup
-	 * @param visualizationTree
+	 * @param morphology
+	 * @param subTree
 	 * @return
 	 */
-	private Map<String, List<String>> createCellPartsVisualGroups(List<SegmentGroup> segmentsGroup, AspectSubTreeNode visualizationTree){
+	private SegmentGroupIndex createCellPartsVisualGroups(Morphology morphology, VisualSubTree subTree){
 
 		VisualGroupNode cellParts = new VisualGroupNode("CellRegions");
 		cellParts.setName("Cell Regions");
-		
-		//Create map with segment ids, keeping track of groups they correspond to 
-		Map<String, List<String>> segmentsMap = new HashMap<String, List<String>>();
-		Map<String, List<String>> segmentsGroupsMap = new HashMap<String, List<String>>();
 
 		//Get all the segment groups from morphology
-		for(SegmentGroup g : segmentsGroup){
+		for(SegmentGroup g : morphology.getSegmentGroup()){
 
 			//segment found
 			String segmentGroupID = g.getId();
@@ -564,52 +1129,10 @@ public class PopulateVisualTreeVisitor
 				vis.setParent(cellParts);
 				cellParts.getVisualGroupElements().add(vis);
 			}
-			
-			//segment not in map, add with new list for groups
-			if(!segmentsGroupsMap.containsKey(segmentGroupID)){
-				List<String> includeGroups = new ArrayList<String>();
-				segmentsGroupsMap.put(segmentGroupID,includeGroups);
-			}
-
-			//traverse through group segments finding segments inside
-			for(Member i : g.getMember()){
-				//segment found
-				String segmentID = i.getSegment().toString();
-				//segment not in map, add with new list for groups
-				if(!segmentsMap.containsKey(segmentID)){
-					List<String> groups = new ArrayList<String>();
-					groups.add(g.getId());
-					segmentsMap.put(segmentID,groups);
-				}
-				//segment in mpa, get list and put with updated one for groups
-				else{
-					List<String> groups = segmentsMap.get(segmentID);
-					groups.add(g.getId());
-					segmentsMap.put(segmentID,groups);
-				}
-
-				List<String> groups = segmentsGroupsMap.get(segmentGroupID);
-				groups.add(segmentID);
-				segmentsGroupsMap.put(segmentGroupID,groups);
-			}
-			//traverse through group segments finding segments inside
-			for(Include i : g.getInclude()){
-				//segment found
-				String sg = i.getSegmentGroup();
-				//segment not in map, add with new list for groups
-				if(segmentsGroupsMap.containsKey(sg)){
-					List<String> segmentsMembers = segmentsGroupsMap.get(sg);
-					for(String key : segmentsMembers){
-						List<String> groups = segmentsMap.get(key);
-						groups.add(segmentGroupID);
-						segmentsMap.put(key,groups);
-					}
-				}
-			}
 		}
 		
-		visualizationTree.addChild(cellParts);
-		return segmentsMap;
+		subTree.add(null, cellParts);
+		return new SegmentGroupIndex(morphology);
 	}
 
 	/**
@@ -635,22 +1158,18 @@ public class PopulateVisualTreeVisitor
 
 	/**
 	 * @param sg
-	 * @param allSegments
+	 * @param segmentsById
 	 * @return
 	 */
-	private List<AVisualObjectNode> getVisualObjectsForGroup(SegmentGroup sg, CompositeNode allSegments)
+	private List<AVisualObjectNode> getVisualObjectsForGroup(SegmentGroup sg, Map<String, AVisualObjectNode> segmentsById)
 	{
 		List<AVisualObjectNode> geometries = new ArrayList<AVisualObjectNode>();
 		for(Member m : sg.getMember())
 		{
-			List<ANode> segments = allSegments.getChildren();
-
-			for(ANode g : segments)
+			AVisualObjectNode g = segmentsById.get(m.getSegment().toString());
+			if(g != null)
 			{
-				if(((AVisualObjectNode) g).getId().equals(m.getSegment().toString()))
-				{
-					geometries.add((AVisualObjectNode) g);
-				}
+				geometries.add(g);
 			}
 		}
 		return geometries;
@@ -667,29 +1186,28 @@ public class PopulateVisualTreeVisitor
 	}
 
 	/**
-	 * @param s
-	 * @param parentDistal
-	 * @param visualGroupNode
+	 * @param g
 	 * @return
 	 */
-	private AVisualObjectNode getCylinderFromSegment(Segment s, Point3DWithDiam parentDistal)
+	private AVisualObjectNode getVisualObjectFromGeometry(SegmentGeometry g)
 	{
-		Point3DWithDiam proximal = (s.getProximal() == null) ? parentDistal : s.getProximal();
-		Point3DWithDiam distal = s.getDistal();
+		visualObjectCount.incrementAndGet();
+		Point3DWithDiam proximal = g.getProximal();
+		Point3DWithDiam distal = g.getDistal();
 
 		if(samePoint(proximal, distal)) // ideally an equals but the objects
 										// are generated. hassle postponed.
 		{
-			SphereNode sphere = new SphereNode(s.getName());
+			SphereNode sphere = new SphereNode(g.getName());
 			sphere.setRadius(proximal.getDiameter() / 2);
 			sphere.setPosition(getPoint(proximal));
-			sphere.setId(s.getId().toString());
+			sphere.setId(g.getId());
 			return sphere;
 		}
 		else
 		{
-			CylinderNode cyl = new CylinderNode(s.getName());
-			cyl.setId(s.getId().toString());
+			CylinderNode cyl = new CylinderNode(g.getName());
+			cyl.setId(g.getId());
 			if(proximal != null)
 			{
 				cyl.setPosition(getPoint(proximal));
@@ -697,7 +1215,7 @@ public class PopulateVisualTreeVisitor
 			}
 			if(distal != null)
 			{
-				cyl.setRadiusTop(s.getDistal().getDiameter() / 2);
+				cyl.setRadiusTop(distal.getDiameter() / 2);
 				cyl.setDistal(getPoint(distal));
 				cyl.setHeight(0d);
 			}
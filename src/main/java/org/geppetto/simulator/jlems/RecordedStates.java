@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.lemsml.jlems.api.ALEMSValue;
+import org.lemsml.jlems.api.LEMSDoubleValue;
+import org.lemsml.jlems.api.interfaces.ILEMSResultsContainer;
+import org.lemsml.jlems.api.interfaces.ILEMSRunConfiguration;
+import org.lemsml.jlems.api.interfaces.IStateIdentifier;
+import org.lemsml.jlems.api.interfaces.IStateRecord;
+
+/**
+ * The states recorded by a run configuration, mapped to dense indices. The state identifiers are resolved once so that reading the values of a step
+ * doesn't need any path handling.
+ */
+public class RecordedStates
+{
+
+	private List<String> _paths = new ArrayList<String>();
+	private List<IStateIdentifier> _identifiers = new ArrayList<IStateIdentifier>();
+	private Map<String, Integer> _indices = new HashMap<String, Integer>();
+
+	/**
+	 * @param runConfig
+	 */
+	public RecordedStates(ILEMSRunConfiguration runConfig)
+	{
+		for(IStateRecord record : runConfig.getRecordedStates())
+		{
+			String path = record.getState().getStatePath().replace("/", ".");
+			if(!_indices.containsKey(path))
+			{
+				_indices.put(path, _paths.size());
+				_paths.add(path);
+				_identifiers.add(record.getState());
+			}
+		}
+	}
+
+	/**
+	 * @return
+	 */
+	public int size()
+	{
+		return _paths.size();
+	}
+
+	/**
+	 * @param index
+	 * @return the LEMS path of the state with dots as separators, e.g. hhpop[0].v
+	 */
+	public String getPath(int index)
+	{
+		return _paths.get(index);
+	}
+
+	/**
+	 * @param path
+	 * @return -1 if the state is not recorded
+	 */
+	public int indexOf(String path)
+	{
+		Integer index = _indices.get(path);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * @param index
+	 * @return
+	 */
+	public IStateIdentifier getIdentifier(int index)
+	{
+		return _identifiers.get(index);
+	}
+
+	/**
+	 * @param results
+	 * @param index
+	 * @return the last value of the state, NaN if the results don't have a numeric value for it
+	 */
+	public double read(ILEMSResultsContainer results, int index)
+	{
+		if(results.getStates().containsKey(_identifiers.get(index)))
+		{
+			ALEMSValue value = results.getState(_identifiers.get(index)).getLastValue();
+			if(value instanceof LEMSDoubleValue)
+			{
+				return ((LEMSDoubleValue) value).getAsDouble();
+			}
+		}
+		return Double.NaN;
+	}
+
+	/**
+	 * @param results
+	 * @param indices
+	 * @param values
+	 *            receives the last value of every state in indices, in the same order
+	 */
+	public void read(ILEMSResultsContainer results, int[] indices, double[] values)
+	{
+		for(int i = 0; i < indices.length; i++)
+		{
+			values[i] = read(results, indices[i]);
+		}
+	}
+}
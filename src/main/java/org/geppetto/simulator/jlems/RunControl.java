@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems;
+
+/**
+ * Cooperative pause, resume and cancellation of the stepping loop. The control methods only set a flag and return, the stepping thread acts on it at its
+ * next checkpoint, which is between two steps so that the simulator is always left in a consistent state. A pause requested between two calls holds the
+ * next call, a cancellation requested while no call is in progress is ignored.
+ */
+public class RunControl
+{
+
+	private boolean _pauseRequested = false;
+	private boolean _paused = false;
+	private volatile boolean _cancelRequested = false;
+	private volatile boolean _interrupting = false;
+	private boolean _running = false;
+
+	/**
+	 * The stepping thread stops at its next checkpoint until {@link #resume()} or {@link #cancel()} is called
+	 */
+	public synchronized void pause()
+	{
+		_pauseRequested = true;
+		_interrupting = true;
+	}
+
+	/**
+	 * Lets a paused stepping thread continue
+	 */
+	public synchronized void resume()
+	{
+		_pauseRequested = false;
+		_interrupting = _cancelRequested;
+		notifyAll();
+	}
+
+	/**
+	 * The call in progress stops stepping at its next checkpoint and publishes the steps done so far, the next call steps again. Does nothing if no call is
+	 * in progress.
+	 */
+	public synchronized void cancel()
+	{
+		if(!_running)
+		{
+			return;
+		}
+		_cancelRequested = true;
+		_pauseRequested = false;
+		_interrupting = true;
+		notifyAll();
+	}
+
+	/**
+	 * @return true once the stepping thread is waiting at a checkpoint
+	 */
+	public synchronized boolean isPaused()
+	{
+		return _paused;
+	}
+
+	/**
+	 * Called by the stepping thread between two steps, waits while paused
+	 * 
+	 * @return false if the call in progress has to stop stepping
+	 * @throws InterruptedException
+	 */
+	public boolean checkpoint() throws InterruptedException
+	{
+		if(!_interrupting)
+		{
+			// the common case costs a volatile read
+			return true;
+		}
+		synchronized(this)
+		{
+			try
+			{
+				while(_pauseRequested && !_cancelRequested)
+				{
+					_paused = true;
+					wait();
+				}
+			}
+			finally
+			{
+				_paused = false;
+			}
+			return !_cancelRequested;
+		}
+	}
+
+	/**
+	 * Called when a call to simulate starts, before its first checkpoint
+	 */
+	public synchronized void startCall()
+	{
+		_running = true;
+	}
+
+	/**
+	 * Called when a call to simulate returns, a cancellation only applies to the call in progress
+	 */
+	public synchronized void endCall()
+	{
+		_running = false;
+		_cancelRequested = false;
+		_interrupting = _pauseRequested;
+	}
+}
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The conductance density of every ion channel on every segment of a cell, so that a membrane can be colored without walking the density groups. Segments
+ * are in the order of the {@link SegmentGroupIndex} of the cell, segments without the channel have a density of 0. All the densities of a channel are in the
+ * unit of its first density.
+ */
+public class SegmentDensities
+{
+
+	// the NeuroML conductance density units in S_per_m2
+	private static final Map<String, Double> UNITS = new HashMap<String, Double>();
+	static
+	{
+		UNITS.put("S_per_m2", 1d);
+		UNITS.put("mS_per_m2", 1e-3);
+		UNITS.put("S_per_cm2", 1e4);
+		UNITS.put("mS_per_cm2", 10d);
+	}
+
+	private List<String> _segmentIds;
+	private Map<String, double[]> _densities = new LinkedHashMap<String, double[]>();
+	private Map<String, String> _units = new LinkedHashMap<String, String>();
+
+	/**
+	 * @param groups
+	 */
+	public SegmentDensities(SegmentGroupIndex groups)
+	{
+		_segmentIds = new ArrayList<String>(groups.getSegmentCount());
+		for(int i = 0; i < groups.getSegmentCount(); i++)
+		{
+			_segmentIds.add(groups.getSegmentId(i));
+		}
+	}
+
+	/**
+	 * Sets the density of a channel on the given segments, overriding what an earlier density set on them. A density in another unit than the first density
+	 * of the channel is converted to that unit.
+	 * 
+	 * @param ionChannel
+	 * @param segments
+	 * @param value
+	 * @param unit
+	 * @throws IllegalArgumentException
+	 *             if the density is in another unit than the channel and either unit is not a conductance density
+	 */
+	void set(String ionChannel, BitSet segments, double value, String unit)
+	{
+		double[] densities = _densities.get(ionChannel);
+		if(densities == null)
+		{
+			densities = new double[_segmentIds.size()];
+			_densities.put(ionChannel, densities);
+			_units.put(ionChannel, unit);
+		}
+		else
+		{
+			value = convert(value, unit, _units.get(ionChannel));
+		}
+		for(int s = segments.nextSetBit(0); s >= 0 && s < densities.length; s = segments.nextSetBit(s + 1))
+		{
+			densities[s] = value;
+		}
+	}
+
+	/**
+	 * @param value
+	 * @param from
+	 * @param to
+	 * @return the value in the unit to
+	 */
+	private static double convert(double value, String from, String to)
+	{
+		if(from == null ? to == null : from.equals(to))
+		{
+			return value;
+		}
+		Double fromFactor = UNITS.get(from);
+		Double toFactor = UNITS.get(to);
+		if(fromFactor == null || toFactor == null)
+		{
+			throw new IllegalArgumentException("Cannot convert a channel density from " + from + " to " + to);
+		}
+		return value * fromFactor / toFactor;
+	}
+
+	/**
+	 * @return the segment ids, the densities arrays are in this order
+	 */
+	public List<String> getSegmentIds()
+	{
+		return Collections.unmodifiableList(_segmentIds);
+	}
+
+	/**
+	 * @return
+	 */
+	public List<String> getIonChannels()
+	{
+		return new ArrayList<String>(_densities.keySet());
+	}
+
+	/**
+	 * @param ionChannel
+	 * @return the density on every segment, null if the cell doesn't have the channel
+	 */
+	public double[] getDensities(String ionChannel)
+	{
+		double[] densities = _densities.get(ionChannel);
+		return densities == null ? null : Arrays.copyOf(densities, densities.length);
+	}
+
+	/**
+	 * @param ionChannel
+	 * @return
+	 */
+	public String getUnit(String ionChannel)
+	{
+		return _units.get(ionChannel);
+	}
+}
@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.neuroml.model.Include;
+import org.neuroml.model.Member;
+import org.neuroml.model.Morphology;
+import org.neuroml.model.Segment;
+import org.neuroml.model.SegmentGroup;
+
+/**
+ * Segment group membership of a morphology. Segments and groups are mapped to dense indices and the segments of every group, including the ones reached
+ * through any chain of includes, are stored as a bit set. The include closure is computed once when the index is created, following the includes rather than
+ * the order in which the groups are declared.
+ */
+public class SegmentGroupIndex
+{
+
+	// resolution state of a group while computing the include closure
+	private static final int UNVISITED = 0;
+	private static final int VISITING = 1;
+	private static final int CLOSED = 2;
+
+	private Map<String, Integer> _segmentIndices = new HashMap<String, Integer>();
+	private List<String> _segmentIds = new ArrayList<String>();
+	private Map<String, Integer> _groupIndices = new HashMap<String, Integer>();
+	private List<String> _groupIds = new ArrayList<String>();
+	// segments of every group, includes resolved
+	private List<BitSet> _groupSegments = new ArrayList<BitSet>();
+	// groups of every segment
+	private List<BitSet> _segmentGroups = new ArrayList<BitSet>();
+	private List<List<String>> _segmentGroupIds = new ArrayList<List<String>>();
+
+	/**
+	 * @param morphology
+	 */
+	public SegmentGroupIndex(Morphology morphology)
+	{
+		for(Segment s : morphology.getSegment())
+		{
+			indexOf(s.getId().toString());
+		}
+
+		List<SegmentGroup> groups = morphology.getSegmentGroup();
+		List<BitSet> members = new ArrayList<BitSet>();
+		for(SegmentGroup g : groups)
+		{
+			BitSet segments = new BitSet();
+			for(Member m : g.getMember())
+			{
+				segments.set(indexOf(m.getSegment().toString()));
+			}
+			_groupIndices.put(g.getId(), _groupIds.size());
+			_groupIds.add(g.getId());
+			members.add(segments);
+			_groupSegments.add(null);
+		}
+
+		int[] state = new int[groups.size()];
+		for(int g = 0; g < groups.size(); g++)
+		{
+			close(g, groups, members, state);
+		}
+
+		for(int s = 0; s < _segmentIds.size(); s++)
+		{
+			_segmentGroups.add(new BitSet());
+			_segmentGroupIds.add(new ArrayList<String>());
+		}
+		for(int g = 0; g < _groupIds.size(); g++)
+		{
+			BitSet segments = _groupSegments.get(g);
+			for(int s = segments.nextSetBit(0); s >= 0; s = segments.nextSetBit(s + 1))
+			{
+				_segmentGroups.get(s).set(g);
+				_segmentGroupIds.get(s).add(_groupIds.get(g));
+			}
+		}
+	}
+
+	/**
+	 * Resolves the includes of a group after the ones of the groups it includes. An include that leads back to a group being resolved is ignored.
+	 * 
+	 * @param g
+	 * @param groups
+	 * @param members
+	 * @param state
+	 * @return the segments of the group
+	 */
+	private BitSet close(int g, List<SegmentGroup> groups, List<BitSet> members, int[] state)
+	{
+		if(state[g] == CLOSED)
+		{
+			return _groupSegments.get(g);
+		}
+		if(state[g] == VISITING)
+		{
+			return members.get(g);
+		}
+		state[g] = VISITING;
+		BitSet segments = (BitSet) members.get(g).clone();
+		for(Include i : groups.get(g).getInclude())
+		{
+			Integer included = _groupIndices.get(i.getSegmentGroup());
+			if(included != null)
+			{
+				segments.or(close(included, groups, members, state));
+			}
+		}
+		_groupSegments.set(g, segments);
+		state[g] = CLOSED;
+		return segments;
+	}
+
+	private int indexOf(String segmentId)
+	{
+		Integer index = _segmentIndices.get(segmentId);
+		if(index == null)
+		{
+			index = _segmentIds.size();
+			_segmentIndices.put(segmentId, index);
+			_segmentIds.add(segmentId);
+		}
+		return index;
+	}
+
+	/**
+	 * @param segmentId
+	 * @return the dense index of the segment, -1 if the morphology doesn't have it
+	 */
+	public int getSegmentIndex(String segmentId)
+	{
+		Integer index = _segmentIndices.get(segmentId);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * @param index
+	 * @return
+	 */
+	public String getSegmentId(int index)
+	{
+		return _segmentIds.get(index);
+	}
+
+	/**
+	 * @return
+	 */
+	public int getSegmentCount()
+	{
+		return _segmentIds.size();
+	}
+
+	/**
+	 * @param segmentId
+	 * @return the groups the segment belongs to, directly or through includes, in declaration order
+	 */
+	public List<String> getGroups(String segmentId)
+	{
+		Integer index = _segmentIndices.get(segmentId);
+		if(index == null)
+		{
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(_segmentGroupIds.get(index));
+	}
+
+	/**
+	 * @param groupId
+	 * @return the indices of the segments in the group, directly or through includes
+	 */
+	public BitSet getSegments(String groupId)
+	{
+		Integer index = _groupIndices.get(groupId);
+		if(index == null)
+		{
+			return new BitSet();
+		}
+		return (BitSet) _groupSegments.get(index).clone();
+	}
+
+	/**
+	 * @param segmentId
+	 * @param groupId
+	 * @return true if the segment belongs to the group, directly or through includes
+	 */
+	public boolean isInGroup(String segmentId, String groupId)
+	{
+		Integer segment = _segmentIndices.get(segmentId);
+		Integer group = _groupIndices.get(groupId);
+		return segment != null && group != null && _groupSegments.get(group).get(segment);
+	}
+
+	/**
+	 * @param segmentId1
+	 * @param segmentId2
+	 * @return true if the two segments belong to exactly the same groups
+	 */
+	public boolean inSameGroups(String segmentId1, String segmentId2)
+	{
+		Integer s1 = _segmentIndices.get(segmentId1);
+		Integer s2 = _segmentIndices.get(segmentId2);
+		BitSet groups1 = s1 == null ? new BitSet() : _segmentGroups.get(s1);
+		BitSet groups2 = s2 == null ? new BitSet() : _segmentGroups.get(s2);
+		return groups1.equals(groups2);
+	}
+}
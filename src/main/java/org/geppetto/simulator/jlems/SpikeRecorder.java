@@ -0,0 +1,256 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.lemsml.jlems.api.interfaces.ILEMSResultsContainer;
+
+/**
+ * Records the upward threshold crossings of the states matching a pattern as (cell index, time) events instead of sampling the states at every step. The
+ * cell index is the position of the state in {@link #getCellPaths()}. With the {@link #SPIKING} threshold the states are expected to be LEMS spiking flags,
+ * which are 1 while the cell spikes, so every rising edge is an event. The events are kept until the recorder is reset or told to stop keeping them, a
+ * {@link SpikeListener} also receives them step by step.
+ */
+public class SpikeRecorder
+{
+
+	public static final double SPIKING = 0.5;
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private WatchPattern _pattern;
+	private double _threshold;
+	private double[] _previous = new double[0];
+	private int[] _cells = new int[INITIAL_CAPACITY];
+	private double[] _times = new double[INITIAL_CAPACITY];
+	private int _count = 0;
+	private boolean _keepEvents = true;
+	private SpikeListener _listener;
+
+	/**
+	 * @param pattern
+	 *            the states to record, see {@link WatchPattern}
+	 * @param threshold
+	 *            an event is recorded when a state goes from below the threshold to the threshold or above
+	 */
+	public SpikeRecorder(String pattern, double threshold)
+	{
+		_pattern = new WatchPattern(pattern);
+		_threshold = threshold;
+	}
+
+	/**
+	 * @return
+	 */
+	public String getPattern()
+	{
+		return _pattern.getPattern();
+	}
+
+	/**
+	 * @return
+	 */
+	public double getThreshold()
+	{
+		return _threshold;
+	}
+
+	/**
+	 * @return
+	 */
+	public SpikeListener getListener()
+	{
+		return _listener;
+	}
+
+	/**
+	 * @param listener
+	 *            told about the events of every step as they are detected, null to only keep them
+	 */
+	public void setListener(SpikeListener listener)
+	{
+		_listener = listener;
+	}
+
+	/**
+	 * @return
+	 */
+	public boolean isKeepingEvents()
+	{
+		return _keepEvents;
+	}
+
+	/**
+	 * @param keepEvents
+	 *            false to only tell the listener about new events, e.g. when the memory cap is reached, the events already kept are untouched
+	 */
+	public void setKeepingEvents(boolean keepEvents)
+	{
+		_keepEvents = keepEvents;
+	}
+
+	/**
+	 * Finds the recorded states matching the pattern and clears the events
+	 * 
+	 * @param recordedStates
+	 */
+	public void resolve(RecordedStates recordedStates)
+	{
+		_pattern.resolve(recordedStates);
+		reset(_pattern.getPaths().size());
+	}
+
+	/**
+	 * Clears the events
+	 * 
+	 * @param cells
+	 *            the number of recorded cells
+	 */
+	public void reset(int cells)
+	{
+		_previous = new double[cells];
+		Arrays.fill(_previous, Double.NaN);
+		_count = 0;
+	}
+
+	/**
+	 * Reads the states from the results of a step and records their crossings
+	 * 
+	 * @param time
+	 *            the time of the step
+	 * @param results
+	 * @param recordedStates
+	 */
+	public void update(double time, ILEMSResultsContainer results, RecordedStates recordedStates)
+	{
+		_pattern.update(results, recordedStates);
+		detect(time, _pattern.getValues());
+	}
+
+	/**
+	 * Records the crossings between the previous values and the given ones
+	 * 
+	 * @param time
+	 * @param values
+	 *            one value per cell
+	 */
+	public void detect(double time, double[] values)
+	{
+		int first = _count;
+		for(int i = 0; i < values.length; i++)
+		{
+			double value = values[i];
+			// NaN comparisons are false, the first step and missing values never produce an event
+			if(value >= _threshold && _previous[i] < _threshold)
+			{
+				if(_count == _cells.length)
+				{
+					_cells = Arrays.copyOf(_cells, _count * 2);
+					_times = Arrays.copyOf(_times, _count * 2);
+				}
+				_cells[_count] = i;
+				_times[_count] = time;
+				_count++;
+			}
+			_previous[i] = value;
+		}
+		SpikeListener listener = _listener;
+		if(listener != null && _count > first)
+		{
+			listener.spikesDetected(this, time, Arrays.copyOfRange(_cells, first, _count));
+		}
+		if(!_keepEvents)
+		{
+			// the events of this step were only for the listener
+			_count = first;
+		}
+	}
+
+	/**
+	 * @return the paths of the recorded states, the index of a path is the cell index of its events
+	 */
+	public List<String> getCellPaths()
+	{
+		return _pattern.getPaths();
+	}
+
+	/**
+	 * @return
+	 */
+	public int getEventCount()
+	{
+		return _count;
+	}
+
+	/**
+	 * @return the cell index of every event, in time order
+	 */
+	public int[] getCells()
+	{
+		return Arrays.copyOf(_cells, _count);
+	}
+
+	/**
+	 * @return the time of every event
+	 */
+	public double[] getTimes()
+	{
+		return Arrays.copyOf(_times, _count);
+	}
+
+	/**
+	 * @return the spike times of every cell, one row per cell as in a raster plot
+	 */
+	public double[][] getRaster()
+	{
+		int[] perCell = new int[_previous.length];
+		for(int e = 0; e < _count; e++)
+		{
+			perCell[_cells[e]]++;
+		}
+		double[][] raster = new double[perCell.length][];
+		for(int c = 0; c < perCell.length; c++)
+		{
+			raster[c] = new double[perCell[c]];
+			perCell[c] = 0;
+		}
+		for(int e = 0; e < _count; e++)
+		{
+			int c = _cells[e];
+			raster[c][perCell[c]++] = _times[e];
+		}
+		return raster;
+	}
+}
@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.geppetto.core.common.GeppettoExecutionException;
+import org.lemsml.jlems.api.interfaces.ILEMSStateInstance;
+
+/**
+ * Resolves LEMS state paths to {@link StateHandle}s on the built state instances. The jLEMS API has no accessor for the state of an instance, the
+ * resolver looks up the getPathInstance(String), getVariable(String) and setVariable(String, double) methods of the jLEMS runtime instances. The lookups
+ * happen once per handle, reading or setting a value is a single method call.
+ */
+public class StateHandleResolver
+{
+
+	private static final String GET_PATH_INSTANCE = "getPathInstance";
+	private static final String GET_VARIABLE = "getVariable";
+	private static final String SET_VARIABLE = "setVariable";
+
+	private List<ILEMSStateInstance> _instances;
+	private String _unsupported = null;
+
+	/**
+	 * A state of a runtime instance
+	 */
+	private static class ReflectiveStateHandle implements StateHandle
+	{
+		private String path;
+		private Object instance;
+		private Method getVariable;
+		private Method setVariable;
+		private String variable;
+
+		@Override
+		public String getPath()
+		{
+			return path;
+		}
+
+		@Override
+		public double get()
+		{
+			try
+			{
+				return ((Number) getVariable.invoke(instance, variable)).doubleValue();
+			}
+			catch(IllegalAccessException e)
+			{
+				throw new IllegalStateException(e);
+			}
+			catch(InvocationTargetException e)
+			{
+				throw new IllegalStateException("Cannot read " + path, e.getCause());
+			}
+		}
+
+		@Override
+		public void set(double value)
+		{
+			try
+			{
+				setVariable.invoke(instance, variable, value);
+			}
+			catch(IllegalAccessException e)
+			{
+				throw new IllegalStateException(e);
+			}
+			catch(InvocationTargetException e)
+			{
+				throw new IllegalStateException("Cannot set " + path, e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * @param instances
+	 *            the state instances the simulator was initialized with
+	 */
+	public StateHandleResolver(Collection<ILEMSStateInstance> instances)
+	{
+		_instances = new ArrayList<ILEMSStateInstance>(instances);
+		// checked when the model is built rather than when a state is first forced
+		for(ILEMSStateInstance instance : _instances)
+		{
+			try
+			{
+				instance.getClass().getMethod(GET_PATH_INSTANCE, String.class);
+				instance.getClass().getMethod(GET_VARIABLE, String.class);
+				instance.getClass().getMethod(SET_VARIABLE, String.class, double.class);
+			}
+			catch(NoSuchMethodException e)
+			{
+				_unsupported = "This version of jLEMS does not allow reading or setting states, " + instance.getClass().getName() + " has no "
+						+ e.getMessage();
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @return false if the jLEMS runtime instances don't have the methods the handles use, resolve then always fails
+	 */
+	public boolean isSupported()
+	{
+		return _unsupported == null;
+	}
+
+	/**
+	 * @param statePath
+	 *            e.g. hhpop[0]/v or hhpop[0].v
+	 * @return
+	 * @throws GeppettoExecutionException
+	 *             if no instance has the state or the jLEMS runtime doesn't allow setting it
+	 */
+	public StateHandle resolve(String statePath) throws GeppettoExecutionException
+	{
+		if(_unsupported != null)
+		{
+			throw new GeppettoExecutionException(_unsupported);
+		}
+		String path = statePath.replace(".", "/");
+		int slash = path.lastIndexOf('/');
+		String instancePath = slash < 0 ? "" : path.substring(0, slash);
+		String variable = path.substring(slash + 1);
+		for(ILEMSStateInstance root : _instances)
+		{
+			try
+			{
+				Object instance = root;
+				if(!instancePath.isEmpty())
+				{
+					Method getPathInstance = root.getClass().getMethod(GET_PATH_INSTANCE, String.class);
+					instance = getPathInstance.invoke(root, instancePath);
+				}
+				if(instance != null)
+				{
+					ReflectiveStateHandle handle = new ReflectiveStateHandle();
+					handle.path = path;
+					handle.instance = instance;
+					handle.getVariable = instance.getClass().getMethod(GET_VARIABLE, String.class);
+					handle.setVariable = instance.getClass().getMethod(SET_VARIABLE, String.class, double.class);
+					handle.variable = variable;
+					// fails if the instance has no such variable
+					handle.getVariable.invoke(instance, variable);
+					return handle;
+				}
+			}
+			catch(NoSuchMethodException e)
+			{
+				throw new GeppettoExecutionException("This version of jLEMS does not allow setting " + path + ": " + e.getMessage());
+			}
+			catch(IllegalAccessException e)
+			{
+				throw new GeppettoExecutionException(e);
+			}
+			catch(InvocationTargetException e)
+			{
+				// the path or the variable is not in this instance, try the next one
+				continue;
+			}
+		}
+		throw new GeppettoExecutionException("No state " + path + " in the model");
+	}
+}
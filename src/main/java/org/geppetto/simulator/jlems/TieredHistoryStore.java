@@ -0,0 +1,385 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The history of watched variables in two tiers. The latest samples of every variable are kept in memory, when a block of samples is full it is
+ * compressed and appended to a temporary file. Reading a time window pages the blocks it needs back in, the last pages read are cached. The memory
+ * block of a variable grows with its samples, so variables that are rarely sampled do not hold a full block.
+ */
+public class TieredHistoryStore
+{
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private int _blockSize;
+	private int _cachedBlocks;
+
+	private Map<String, Integer> _variables = new HashMap<String, Integer>();
+	private List<Series> _series = new ArrayList<Series>();
+
+	private File _file = null;
+	private RandomAccessFile _data = null;
+	private long _length = 0;
+
+	private Map<Block, double[][]> _cache;
+	private long _memorySamples = 0;
+	// the capacity of the memory blocks and of the cached blocks, in samples
+	private long _allocatedSamples = 0;
+
+	/**
+	 * The samples of a variable, the spilled blocks in time order followed by the block in memory
+	 */
+	private static class Series
+	{
+		private List<Block> blocks = new ArrayList<Block>();
+		private double[] times = new double[0];
+		private double[] values = new double[0];
+		private int size = 0;
+		private long count = 0;
+	}
+
+	/**
+	 * Where a spilled block is in the file
+	 */
+	private static class Block
+	{
+		private double firstTime;
+		private double lastTime;
+		private long offset;
+		private int length;
+		private int count;
+	}
+
+	/**
+	 * @param blockSize
+	 *            the number of samples of a variable kept in memory before they are spilled
+	 * @param cachedBlocks
+	 *            the number of spilled blocks kept in memory after they are read
+	 */
+	public TieredHistoryStore(int blockSize, final int cachedBlocks)
+	{
+		_blockSize = Math.max(1, blockSize);
+		_cachedBlocks = Math.max(1, cachedBlocks);
+		_cache = new LinkedHashMap<Block, double[][]>(16, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Block, double[][]> eldest)
+			{
+				if(size() > _cachedBlocks)
+				{
+					_allocatedSamples -= eldest.getKey().count;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @param path
+	 * @return the index of the variable, the same index is returned if the variable is already known
+	 */
+	public synchronized int register(String path)
+	{
+		Integer index = _variables.get(path);
+		if(index == null)
+		{
+			index = _series.size();
+			_variables.put(path, index);
+			_series.add(new Series());
+		}
+		return index;
+	}
+
+	/**
+	 * @param path
+	 * @return the index of the variable or -1 if it was never registered
+	 */
+	public synchronized int indexOf(String path)
+	{
+		Integer index = _variables.get(path);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * @param variable
+	 * @param time
+	 *            not earlier than the time of the previous sample of the variable
+	 * @param value
+	 * @throws IOException
+	 */
+	public synchronized void add(int variable, double time, double value) throws IOException
+	{
+		Series series = _series.get(variable);
+		if(series.size == series.times.length)
+		{
+			int capacity = Math.min(_blockSize, Math.max(INITIAL_CAPACITY, series.size * 2));
+			_allocatedSamples += capacity - series.times.length;
+			series.times = Arrays.copyOf(series.times, capacity);
+			series.values = Arrays.copyOf(series.values, capacity);
+		}
+		series.times[series.size] = time;
+		series.values[series.size] = value;
+		series.size++;
+		series.count++;
+		_memorySamples++;
+		if(series.size == _blockSize)
+		{
+			spill(series);
+		}
+	}
+
+	private void spill(Series series) throws IOException
+	{
+		ByteBuffer raw = ByteBuffer.allocate(series.size * 16);
+		raw.asDoubleBuffer().put(series.times, 0, series.size).put(series.values, 0, series.size);
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		deflater.setInput(raw.array());
+		deflater.finish();
+		byte[] compressed = new byte[raw.capacity() + 64];
+		int length = 0;
+		while(!deflater.finished())
+		{
+			if(length == compressed.length)
+			{
+				compressed = Arrays.copyOf(compressed, compressed.length * 2);
+			}
+			length += deflater.deflate(compressed, length, compressed.length - length);
+		}
+		deflater.end();
+
+		if(_data == null)
+		{
+			_file = File.createTempFile("geppetto-history", ".bin");
+			_file.deleteOnExit();
+			_data = new RandomAccessFile(_file, "rw");
+		}
+		_data.seek(_length);
+		_data.write(compressed, 0, length);
+
+		Block block = new Block();
+		block.firstTime = series.times[0];
+		block.lastTime = series.times[series.size - 1];
+		block.offset = _length;
+		block.length = length;
+		block.count = series.size;
+		series.blocks.add(block);
+		_length += length;
+		_memorySamples -= series.size;
+		series.size = 0;
+	}
+
+	private double[][] load(Block block) throws IOException
+	{
+		double[][] samples = _cache.get(block);
+		if(samples == null)
+		{
+			byte[] compressed = new byte[block.length];
+			_data.seek(block.offset);
+			_data.readFully(compressed);
+			Inflater inflater = new Inflater();
+			inflater.setInput(compressed);
+			byte[] raw = new byte[block.count * 16];
+			try
+			{
+				int read = 0;
+				while(read < raw.length && !inflater.finished())
+				{
+					read += inflater.inflate(raw, read, raw.length - read);
+				}
+			}
+			catch(DataFormatException e)
+			{
+				throw new IOException(e);
+			}
+			finally
+			{
+				inflater.end();
+			}
+			samples = new double[2][block.count];
+			ByteBuffer.wrap(raw).asDoubleBuffer().get(samples[0]).get(samples[1]);
+			_allocatedSamples += block.count;
+			_cache.put(block, samples);
+		}
+		return samples;
+	}
+
+	/**
+	 * @param variable
+	 * @param from
+	 *            first time included
+	 * @param to
+	 *            first time excluded
+	 * @return the times and the values of the samples in [from, to)
+	 * @throws IOException
+	 */
+	public synchronized double[][] read(int variable, double from, double to) throws IOException
+	{
+		Series series = _series.get(variable);
+		double[] times = new double[0];
+		double[] values = new double[0];
+		int n = 0;
+		for(int b = firstBlockEndingAfter(series.blocks, from); b < series.blocks.size() && series.blocks.get(b).firstTime < to; b++)
+		{
+			double[][] samples = load(series.blocks.get(b));
+			int start = lowerBound(samples[0], samples[0].length, from);
+			int end = lowerBound(samples[0], samples[0].length, to);
+			times = ensureCapacity(times, n + end - start);
+			values = ensureCapacity(values, n + end - start);
+			System.arraycopy(samples[0], start, times, n, end - start);
+			System.arraycopy(samples[1], start, values, n, end - start);
+			n += end - start;
+		}
+		int start = lowerBound(series.times, series.size, from);
+		int end = lowerBound(series.times, series.size, to);
+		times = ensureCapacity(times, n + end - start);
+		values = ensureCapacity(values, n + end - start);
+		System.arraycopy(series.times, start, times, n, end - start);
+		System.arraycopy(series.values, start, values, n, end - start);
+		n += end - start;
+		return new double[][] { Arrays.copyOf(times, n), Arrays.copyOf(values, n) };
+	}
+
+	private static int firstBlockEndingAfter(List<Block> blocks, double time)
+	{
+		int low = 0;
+		int high = blocks.size();
+		while(low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if(blocks.get(mid).lastTime < time)
+			{
+				low = mid + 1;
+			}
+			else
+			{
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private static int lowerBound(double[] times, int size, double time)
+	{
+		int low = 0;
+		int high = size;
+		while(low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if(times[mid] < time)
+			{
+				low = mid + 1;
+			}
+			else
+			{
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private static double[] ensureCapacity(double[] array, int capacity)
+	{
+		return array.length >= capacity ? array : Arrays.copyOf(array, Math.max(capacity, array.length * 2));
+	}
+
+	/**
+	 * @param variable
+	 * @return the number of samples of the variable, in memory and on disk
+	 */
+	public synchronized long getSampleCount(int variable)
+	{
+		return _series.get(variable).count;
+	}
+
+	/**
+	 * @return the number of samples of all the variables still in memory
+	 */
+	public synchronized long getMemorySampleCount()
+	{
+		return _memorySamples;
+	}
+
+	/**
+	 * @return the number of samples the store holds memory for, the capacity of the memory blocks and the cached blocks included
+	 */
+	public synchronized long getAllocatedSampleCount()
+	{
+		return _allocatedSamples;
+	}
+
+	/**
+	 * @return the bytes written to the temporary file
+	 */
+	public synchronized long getSpilledBytes()
+	{
+		return _length;
+	}
+
+	/**
+	 * Forgets all the variables and deletes the temporary file
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException
+	{
+		_variables.clear();
+		_series.clear();
+		_cache.clear();
+		_memorySamples = 0;
+		_allocatedSamples = 0;
+		_length = 0;
+		if(_data != null)
+		{
+			_data.close();
+			_data = null;
+			_file.delete();
+			_file = null;
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems;
+
+/**
+ * The samples of a variable in a time window
+ */
+public class TimeWindow
+{
+
+	private String _path;
+	private double[] _times;
+	private double[] _values;
+
+	/**
+	 * @param path
+	 * @param times
+	 * @param values
+	 */
+	public TimeWindow(String path, double[] times, double[] values)
+	{
+		_path = path;
+		_times = times;
+		_values = values;
+	}
+
+	/**
+	 * @return
+	 */
+	public String getPath()
+	{
+		return _path;
+	}
+
+	/**
+	 * @return
+	 */
+	public double[] getTimes()
+	{
+		return _times;
+	}
+
+	/**
+	 * @return
+	 */
+	public double[] getValues()
+	{
+		return _values;
+	}
+
+	/**
+	 * Reduces the window to at most maxPoints samples for plotting. The samples are split in maxPoints / 2 buckets and the minimum and the maximum of
+	 * every bucket are kept in time order, so spikes survive the downsampling.
+	 * 
+	 * @param maxPoints
+	 * @return this window if it already has at most maxPoints samples
+	 */
+	public TimeWindow downsample(int maxPoints)
+	{
+		int n = _times.length;
+		int buckets = maxPoints / 2;
+		if(n <= maxPoints || buckets == 0)
+		{
+			return this;
+		}
+		double[] times = new double[buckets * 2];
+		double[] values = new double[buckets * 2];
+		int out = 0;
+		for(int b = 0; b < buckets; b++)
+		{
+			int start = (int) ((long) b * n / buckets);
+			int end = (int) ((long) (b + 1) * n / buckets);
+			int min = start;
+			int max = start;
+			for(int i = start + 1; i < end; i++)
+			{
+				if(_values[i] < _values[min])
+				{
+					min = i;
+				}
+				if(_values[i] > _values[max])
+				{
+					max = i;
+				}
+			}
+			int first = Math.min(min, max);
+			int second = Math.max(min, max);
+			times[out] = _times[first];
+			values[out++] = _values[first];
+			times[out] = _times[second];
+			values[out++] = _values[second];
+		}
+		return new TimeWindow(_path, times, values);
+	}
+}
@@ -0,0 +1,262 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.lemsml.jlems.api.interfaces.ILEMSResultsContainer;
+
+/**
+ * A watch on all the recorded states matching a pattern. The pattern is a state path with dots as separators where
+ * <ul>
+ * <li>a * token matches one or more tokens, e.g. hhpop[0].bioPhys1.*.q</li>
+ * <li>an array index [*] matches any index, e.g. hhpop[*].v</li>
+ * <li>an array index [from:to] matches the indices from the first to the second included, e.g. hhpop[0:99].v</li>
+ * </ul>
+ * Once resolved the matching states are an array of indices into the {@link RecordedStates} and their values are delivered every step as a single packed
+ * vector in the same order. {@link #getValues()} only holds the last update, a {@link WatchPatternListener} receives all of them.
+ */
+public class WatchPattern
+{
+
+	private static final String ANY = "*";
+
+	private String _pattern;
+	private String[] _tokens;
+	private int[] _indices = new int[0];
+	private List<String> _paths = Collections.emptyList();
+	private double[] _values = new double[0];
+	private int _divisor = 1;
+	private WatchPatternListener _listener;
+
+	/**
+	 * @param pattern
+	 */
+	public WatchPattern(String pattern)
+	{
+		_pattern = pattern;
+		_tokens = pattern.split("\\.");
+	}
+
+	/**
+	 * @return
+	 */
+	public String getPattern()
+	{
+		return _pattern;
+	}
+
+	/**
+	 * @return the values are updated every divisor steps
+	 */
+	public int getDivisor()
+	{
+		return _divisor;
+	}
+
+	/**
+	 * @param divisor
+	 *            the values are updated every divisor steps, 1 updates them at every step
+	 */
+	public void setDivisor(int divisor)
+	{
+		_divisor = Math.max(1, divisor);
+	}
+
+	/**
+	 * @return
+	 */
+	public WatchPatternListener getListener()
+	{
+		return _listener;
+	}
+
+	/**
+	 * @param listener
+	 *            told about the values at every update, null to only keep the last ones
+	 */
+	public void setListener(WatchPatternListener listener)
+	{
+		_listener = listener;
+	}
+
+	/**
+	 * @param path
+	 *            a state path with dots as separators
+	 * @return true if the pattern matches the path
+	 */
+	public boolean matches(String path)
+	{
+		return matches(path.split("\\."), 0, 0);
+	}
+
+	private boolean matches(String[] path, int p, int t)
+	{
+		if(t == _tokens.length)
+		{
+			return p == path.length;
+		}
+		if(p == path.length)
+		{
+			return false;
+		}
+		if(_tokens[t].equals(ANY))
+		{
+			// one or more tokens
+			for(int next = p + 1; next <= path.length; next++)
+			{
+				if(matches(path, next, t + 1))
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+		return matchesToken(_tokens[t], path[p]) && matches(path, p + 1, t + 1);
+	}
+
+	private boolean matchesToken(String token, String pathToken)
+	{
+		int open = token.indexOf('[');
+		if(open < 0 || !token.endsWith("]"))
+		{
+			return token.equals(pathToken);
+		}
+		int pathOpen = pathToken.indexOf('[');
+		if(pathOpen < 0 || !pathToken.endsWith("]") || !token.substring(0, open).equals(pathToken.substring(0, pathOpen)))
+		{
+			return false;
+		}
+		String range = token.substring(open + 1, token.length() - 1);
+		String index = pathToken.substring(pathOpen + 1, pathToken.length() - 1);
+		if(range.equals(ANY))
+		{
+			return true;
+		}
+		try
+		{
+			int i = Integer.parseInt(index);
+			int colon = range.indexOf(':');
+			if(colon < 0)
+			{
+				return i == Integer.parseInt(range);
+			}
+			return i >= Integer.parseInt(range.substring(0, colon)) && i <= Integer.parseInt(range.substring(colon + 1));
+		}
+		catch(NumberFormatException e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Finds the recorded states matching the pattern
+	 * 
+	 * @param recordedStates
+	 */
+	public void resolve(RecordedStates recordedStates)
+	{
+		int[] indices = new int[recordedStates.size()];
+		List<String> paths = new ArrayList<String>();
+		int n = 0;
+		for(int i = 0; i < recordedStates.size(); i++)
+		{
+			if(matches(recordedStates.getPath(i)))
+			{
+				indices[n++] = i;
+				paths.add(recordedStates.getPath(i));
+			}
+		}
+		_indices = Arrays.copyOf(indices, n);
+		_paths = Collections.unmodifiableList(paths);
+		_values = new double[n];
+		Arrays.fill(_values, Double.NaN);
+	}
+
+	/**
+	 * Reads the values of the matching states from the results of a step
+	 * 
+	 * @param results
+	 * @param recordedStates
+	 */
+	public void update(ILEMSResultsContainer results, RecordedStates recordedStates)
+	{
+		recordedStates.read(results, _indices, _values);
+	}
+
+	/**
+	 * Reads the values of the matching states from the results of a step and passes them to the listener
+	 * 
+	 * @param step
+	 * @param time
+	 *            the time of the step
+	 * @param results
+	 * @param recordedStates
+	 */
+	public void update(long step, double time, ILEMSResultsContainer results, RecordedStates recordedStates)
+	{
+		update(results, recordedStates);
+		WatchPatternListener listener = _listener;
+		if(listener != null)
+		{
+			listener.valuesUpdated(this, step, time, _values);
+		}
+	}
+
+	/**
+	 * @return the indices of the matching states in the recorded states
+	 */
+	public int[] getIndices()
+	{
+		return _indices;
+	}
+
+	/**
+	 * @return the paths of the matching states, in the order of the values
+	 */
+	public List<String> getPaths()
+	{
+		return _paths;
+	}
+
+	/**
+	 * @return the values of the matching states at the last step, the array is reused from one step to the next
+	 */
+	public double[] getValues()
+	{
+		return _values;
+	}
+}
@@ -0,0 +1,412 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.geppetto.core.model.quantities.PhysicalQuantity;
+import org.geppetto.core.model.runtime.AspectSubTreeNode;
+import org.geppetto.core.model.runtime.VariableNode;
+import org.geppetto.core.model.values.ValuesFactory;
+import org.lemsml.jlems.api.interfaces.ILEMSResultsContainer;
+
+/**
+ * The watched variable nodes grouped by output rate. A group with divisor n is updated every n steps, the nodes of the groups that are not due are not
+ * touched.
+ */
+public class WatchRateGroups
+{
+
+	// past this factor the history is too coarse to be worth keeping, the rates are not halved any further
+	public static final int MAX_DECIMATION = 1 << 16;
+
+	private Map<Integer, RateGroup> _groups = new TreeMap<Integer, RateGroup>();
+	private int _decimation = 1;
+	private long _samples = 0;
+	private TieredHistoryStore _historyStore = null;
+
+	/**
+	 * The nodes sharing an output rate, with the index of the recorded state of every node
+	 */
+	private static class RateGroup
+	{
+		private int divisor;
+		private List<String> paths = new ArrayList<String>();
+		private List<VariableNode> nodes = new ArrayList<VariableNode>();
+		private List<Integer> variables = new ArrayList<Integer>();
+		private List<Integer> stateIndices = new ArrayList<Integer>();
+		private List<AspectSubTreeNode> watchTrees = new ArrayList<AspectSubTreeNode>();
+		private int[] indices = null;
+
+		private RateGroup(int divisor)
+		{
+			this.divisor = divisor;
+		}
+
+		private int[] getIndices()
+		{
+			if(indices == null)
+			{
+				indices = new int[stateIndices.size()];
+				for(int i = 0; i < indices.length; i++)
+				{
+					indices[i] = stateIndices.get(i);
+				}
+			}
+			return indices;
+		}
+	}
+
+	/**
+	 * Removes all the nodes
+	 */
+	public void clear()
+	{
+		_groups.clear();
+	}
+
+	/**
+	 * Removes all the nodes, forgets the decimation and the number of samples
+	 */
+	public void reset()
+	{
+		_groups.clear();
+		_decimation = 1;
+		_samples = 0;
+	}
+
+	/**
+	 * @param historyStore
+	 *            receives every value added to the nodes, null to only keep the values in the nodes
+	 */
+	public void setHistoryStore(TieredHistoryStore historyStore)
+	{
+		_historyStore = historyStore;
+	}
+
+	/**
+	 * Keeps only the latest value in the history of every node, the older ones are expected to be in the history store
+	 */
+	public void trim()
+	{
+		_samples = 0;
+		for(RateGroup group : _groups.values())
+		{
+			for(VariableNode node : group.nodes)
+			{
+				List<PhysicalQuantity> timeSeries = node.getTimeSeries();
+				if(timeSeries.size() > 1)
+				{
+					timeSeries.subList(0, timeSeries.size() - 1).clear();
+				}
+				_samples += timeSeries.size();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of values added to the nodes, see {@link #setSampleCount(long)}
+	 */
+	public long getSampleCount()
+	{
+		return _samples;
+	}
+
+	/**
+	 * @param samples
+	 *            the number of values already in the nodes, e.g. 0 when the watch trees are emptied
+	 */
+	public void setSampleCount(long samples)
+	{
+		_samples = samples;
+	}
+
+	/**
+	 * @return the factor the rates of all the groups have been divided by
+	 */
+	public int getDecimation()
+	{
+		return _decimation;
+	}
+
+	/**
+	 * Drops every other value of the history of every node and halves the rate of all the groups, including the ones added later
+	 * 
+	 * @return false, leaving the history and the rates untouched, if no node has more than its latest value or the rates cannot be halved any further
+	 */
+	public boolean decimate()
+	{
+		if(_decimation >= MAX_DECIMATION)
+		{
+			return false;
+		}
+		boolean droppable = false;
+		for(RateGroup group : _groups.values())
+		{
+			if(group.divisor > Integer.MAX_VALUE / 2)
+			{
+				return false;
+			}
+			for(VariableNode node : group.nodes)
+			{
+				droppable |= node.getTimeSeries().size() > 1;
+			}
+		}
+		if(!droppable)
+		{
+			return false;
+		}
+		Map<Integer, RateGroup> groups = new TreeMap<Integer, RateGroup>();
+		_samples = 0;
+		for(RateGroup group : _groups.values())
+		{
+			for(VariableNode node : group.nodes)
+			{
+				List<PhysicalQuantity> timeSeries = node.getTimeSeries();
+				List<PhysicalQuantity> kept = new ArrayList<PhysicalQuantity>(timeSeries.size() / 2 + 1);
+				// the latest value is always kept
+				for(int i = (timeSeries.size() + 1) % 2; i < timeSeries.size(); i += 2)
+				{
+					kept.add(timeSeries.get(i));
+				}
+				timeSeries.clear();
+				timeSeries.addAll(kept);
+				_samples += kept.size();
+			}
+			group.divisor *= 2;
+			groups.put(group.divisor, group);
+		}
+		_groups = groups;
+		_decimation *= 2;
+		return true;
+	}
+
+	/**
+	 * Decimates the history until the budget is no longer exceeded
+	 * 
+	 * @param budget
+	 * @return false if decimating cannot bring the budget under its cap, because the rest of the estimate is over the cap on its own or there is nothing
+	 *         left to drop
+	 */
+	public boolean decimate(MemoryBudget budget)
+	{
+		budget.setHistorySamples(_samples);
+		if(budget.getEstimatedBytes() - _samples * MemoryBudget.BYTES_PER_SAMPLE > budget.getCap())
+		{
+			// the watched history is not what is over the cap
+			return false;
+		}
+		while(budget.isExceeded())
+		{
+			if(!decimate())
+			{
+				return false;
+			}
+			budget.setHistorySamples(_samples);
+		}
+		return true;
+	}
+
+	/**
+	 * @param divisor
+	 *            the node is updated every divisor steps
+	 * @param path
+	 *            the instance path of the node
+	 * @param node
+	 * @param stateIndex
+	 *            the index of the state in the {@link RecordedStates}
+	 * @param watchTree
+	 *            the watch tree containing the node
+	 */
+	public void add(int divisor, String path, VariableNode node, int stateIndex, AspectSubTreeNode watchTree)
+	{
+		divisor = Math.max(1, divisor) * _decimation;
+		RateGroup group = _groups.get(divisor);
+		if(group == null)
+		{
+			group = new RateGroup(divisor);
+			_groups.put(divisor, group);
+		}
+		group.paths.add(path);
+		group.nodes.add(node);
+		group.variables.add(_historyStore == null ? -1 : _historyStore.register(path));
+		group.stateIndices.add(stateIndex);
+		group.watchTrees.add(watchTree);
+		group.indices = null;
+	}
+
+	/**
+	 * Moves a node to the group of another divisor, the other nodes and the history of the node are untouched
+	 * 
+	 * @param path
+	 *            the instance path of the node
+	 * @param divisor
+	 *            the node is updated every divisor steps
+	 * @return false if no node has this path, the divisor then applies when it is added
+	 */
+	public boolean setDivisor(String path, int divisor)
+	{
+		divisor = Math.max(1, divisor) * _decimation;
+		for(RateGroup group : _groups.values())
+		{
+			int i = group.paths.indexOf(path);
+			if(i < 0)
+			{
+				continue;
+			}
+			if(group.divisor == divisor)
+			{
+				return true;
+			}
+			VariableNode node = group.nodes.remove(i);
+			int variable = group.variables.remove(i);
+			int stateIndex = group.stateIndices.remove(i);
+			AspectSubTreeNode watchTree = group.watchTrees.remove(i);
+			group.paths.remove(i);
+			group.indices = null;
+			if(group.nodes.isEmpty())
+			{
+				_groups.remove(group.divisor);
+			}
+			RateGroup target = _groups.get(divisor);
+			if(target == null)
+			{
+				target = new RateGroup(divisor);
+				_groups.put(divisor, target);
+			}
+			target.paths.add(path);
+			target.nodes.add(node);
+			target.variables.add(variable);
+			target.stateIndices.add(stateIndex);
+			target.watchTrees.add(watchTree);
+			target.indices = null;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the number of watched nodes
+	 */
+	public int size()
+	{
+		int size = 0;
+		for(RateGroup group : _groups.values())
+		{
+			size += group.nodes.size();
+		}
+		return size;
+	}
+
+	/**
+	 * @return the instance paths of the watched nodes in binding order, the order of the values read by {@link #read}
+	 */
+	public List<String> getPaths()
+	{
+		List<String> paths = new ArrayList<String>();
+		for(RateGroup group : _groups.values())
+		{
+			paths.addAll(group.paths);
+		}
+		return paths;
+	}
+
+	/**
+	 * Reads the values of all the watched nodes in binding order, whatever their rate
+	 * 
+	 * @param results
+	 * @param recordedStates
+	 * @param values
+	 *            an array of {@link #size()} values
+	 */
+	public void read(ILEMSResultsContainer results, RecordedStates recordedStates, double[] values)
+	{
+		int offset = 0;
+		for(RateGroup group : _groups.values())
+		{
+			int[] indices = group.getIndices();
+			for(int i = 0; i < indices.length; i++)
+			{
+				values[offset++] = recordedStates.read(results, indices[i]);
+			}
+		}
+	}
+
+	/**
+	 * Adds the values of a step to the nodes of the groups that are due
+	 * 
+	 * @param step
+	 * @param time
+	 *            the time of the step, stored with the values in the history store
+	 * @param results
+	 * @param recordedStates
+	 * @return the watch trees containing updated nodes
+	 * @throws IOException
+	 *             if the history store cannot spill its values
+	 */
+	public Set<AspectSubTreeNode> update(long step, double time, ILEMSResultsContainer results, RecordedStates recordedStates) throws IOException
+	{
+		Set<AspectSubTreeNode> modified = new LinkedHashSet<AspectSubTreeNode>();
+		for(RateGroup group : _groups.values())
+		{
+			if(step % group.divisor != 0)
+			{
+				continue;
+			}
+			int[] indices = group.getIndices();
+			for(int i = 0; i < indices.length; i++)
+			{
+				double value = recordedStates.read(results, indices[i]);
+				if(!Double.isNaN(value))
+				{
+					PhysicalQuantity quantity = new PhysicalQuantity();
+					quantity.setValue(ValuesFactory.getDoubleValue(value));
+					group.nodes.get(i).addPhysicalQuantity(quantity);
+					_samples++;
+					if(_historyStore != null && group.variables.get(i) >= 0)
+					{
+						_historyStore.add(group.variables.get(i), time, value);
+					}
+					modified.add(group.watchTrees.get(i));
+				}
+			}
+		}
+		return modified;
+	}
+}
@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import org.geppetto.core.common.ArrayUtils;
+import org.geppetto.core.data.model.AVariable;
+import org.geppetto.core.data.model.ArrayVariable;
+import org.geppetto.core.data.model.SimpleType;
+import org.geppetto.core.data.model.SimpleType.Type;
+import org.geppetto.core.data.model.StructuredType;
+import org.geppetto.core.model.data.DataModelFactory;
+
+/**
+ * Builds the type tree of the watchable variables from the paths of the recorded states. Every variable list of the tree is indexed by name while the tree
+ * is built and every distinct path token is parsed once, so adding a path costs the same whatever the number of paths already added.
+ */
+public class WatchableVariablesBuilder
+{
+
+	private SimpleType _floatType = DataModelFactory.getSimpleType(Type.FLOAT);
+	private VariableIndex _root;
+	private Map<String, PathToken> _tokens = new HashMap<String, PathToken>();
+
+	/**
+	 * A path token with its array name and index already parsed
+	 */
+	private static class PathToken
+	{
+		private String name;
+		private boolean array;
+		private int size;
+
+		private PathToken(String token)
+		{
+			array = ArrayUtils.isArray(token);
+			name = array ? ArrayUtils.getArrayName(token) : token;
+			size = array ? ArrayUtils.getArrayIndex(token) + 1 : 0;
+		}
+	}
+
+	/**
+	 * A list of variables indexed by name, the indices of the children are created when first needed
+	 */
+	private static class VariableIndex
+	{
+		private List<AVariable> variables;
+		private Map<String, AVariable> byName = new HashMap<String, AVariable>();
+		private Map<String, VariableIndex> children = new HashMap<String, VariableIndex>();
+
+		private VariableIndex(List<AVariable> variables)
+		{
+			this.variables = variables;
+			for(AVariable v : variables)
+			{
+				if(!byName.containsKey(v.getName()))
+				{
+					byName.put(v.getName(), v);
+				}
+			}
+		}
+
+		private void add(AVariable v)
+		{
+			variables.add(v);
+			byName.put(v.getName(), v);
+		}
+
+		private VariableIndex getChildren(AVariable v)
+		{
+			VariableIndex index = children.get(v.getName());
+			if(index == null)
+			{
+				index = new VariableIndex(((StructuredType) v.getType()).getVariables());
+				children.put(v.getName(), index);
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * @param variables
+	 *            the list the variables are added to, variables already in it are reused
+	 */
+	public WatchableVariablesBuilder(List<AVariable> variables)
+	{
+		_root = new VariableIndex(variables);
+	}
+
+	/**
+	 * Adds the variables along a state path
+	 * 
+	 * @param statePath
+	 *            e.g. hhpop[0]/bioPhys1/membraneProperties/naChans/na/m/q
+	 */
+	public void addPath(String statePath)
+	{
+		VariableIndex level = _root;
+		StringTokenizer stok = new StringTokenizer(statePath, "/");
+
+		while(stok.hasMoreTokens())
+		{
+			PathToken token = getToken(stok.nextToken());
+			AVariable v = level.byName.get(token.name);
+
+			if(v == null)
+			{
+				if(stok.hasMoreTokens())
+				{
+					StructuredType structuredType = new StructuredType();
+					structuredType.setName(token.name + "T");
+					if(token.array)
+					{
+						v = DataModelFactory.getArrayVariable(token.name, structuredType, token.size);
+					}
+					else
+					{
+						v = DataModelFactory.getSimpleVariable(token.name, structuredType);
+					}
+					level.add(v);
+					level = level.getChildren(v);
+				}
+				else
+				{
+					if(token.array)
+					{
+						level.add(DataModelFactory.getArrayVariable(token.name, _floatType, token.size));
+					}
+					else
+					{
+						level.add(DataModelFactory.getSimpleVariable(token.name, _floatType));
+					}
+				}
+			}
+			else
+			{
+				if(stok.hasMoreTokens())
+				{
+					level = level.getChildren(v);
+					if(token.array && token.size > ((ArrayVariable) v).getSize())
+					{
+						((ArrayVariable) v).setSize(token.size);
+					}
+				}
+			}
+		}
+	}
+
+	private PathToken getToken(String token)
+	{
+		PathToken parsed = _tokens.get(token);
+		if(parsed == null)
+		{
+			parsed = new PathToken(token);
+			_tokens.put(token, parsed);
+		}
+		return parsed;
+	}
+}
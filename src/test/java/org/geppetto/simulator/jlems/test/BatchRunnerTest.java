@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems.test;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.geppetto.simulator.jlems.BatchRunner;
+import org.geppetto.simulator.jlems.BatchRunner.OutputFormat;
+import org.geppetto.simulator.jlems.LEMSModelBuilder;
+import org.geppetto.simulator.jlems.StateHandle;
+import org.geppetto.simulator.jlems.StateHandleResolver;
+import org.junit.Test;
+import org.lemsml.jlems.api.LEMSDocumentReader;
+import org.lemsml.jlems.api.interfaces.ILEMSDocument;
+
+/**
+ * Test for {@link org.geppetto.simulator.jlems.BatchRunner} and the reuse of a {@link org.geppetto.simulator.jlems.LEMSModelBuilder} on the HH example
+ */
+public class BatchRunnerTest
+{
+
+	@Test
+	public void testIndependentRuns() throws Exception
+	{
+		URL hh = new URL(StateHandleResolverTest.HH_MODEL);
+		File first = File.createTempFile("batch", ".txt");
+		File binary = File.createTempFile("batch", ".bin");
+		File second = File.createTempFile("batch", ".txt");
+		try
+		{
+			BatchRunner columns = new BatchRunner(OutputFormat.COLUMNS, false);
+			long steps = columns.run(hh, first);
+			Assert.assertTrue(steps > 0);
+			// a run in between with another runner and format
+			Assert.assertEquals(steps, new BatchRunner(OutputFormat.BINARY, true).run(hh, binary));
+			Assert.assertEquals(steps, columns.run(hh, second));
+
+			// nothing carried over from the earlier runs, the same model gives the same values
+			byte[] expected = Files.readAllBytes(first.toPath());
+			Assert.assertTrue(Arrays.equals(expected, Files.readAllBytes(second.toPath())));
+			String[] lines = new String(expected, "UTF-8").split("\n");
+			// the header and one line per step
+			Assert.assertEquals(steps + 1, lines.length);
+			Assert.assertTrue(lines[0].startsWith("t\t"));
+		}
+		finally
+		{
+			first.delete();
+			binary.delete();
+			second.delete();
+		}
+	}
+
+	@Test
+	public void testBuilderReuse() throws Exception
+	{
+		ILEMSDocument lemsDocument = new LEMSDocumentReader().readModel(new URL(StateHandleResolverTest.HH_MODEL));
+		LEMSModelBuilder builder = new LEMSModelBuilder();
+		builder.build(lemsDocument);
+		StateHandle v = new StateHandleResolver(builder.getStateInstances()).resolve("hhpop[0].v");
+		double initial = v.get();
+		v.set(initial + 0.01);
+
+		// a rebuild gives new instances, the state set on the old ones is not in them
+		builder.rebuild(lemsDocument);
+		Assert.assertNotNull(builder.getRunConfig());
+		StateHandle rebuilt = new StateHandleResolver(builder.getStateInstances()).resolve("hhpop[0].v");
+		Assert.assertEquals(initial, rebuilt.get(), 0);
+		Assert.assertEquals(initial + 0.01, v.get(), 0);
+	}
+}
@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems.test;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.geppetto.simulator.jlems.ExecutionPacer;
+import org.geppetto.simulator.jlems.ExecutionPacer.ExecutionMode;
+import org.junit.Test;
+
+/**
+ * Test for {@link org.geppetto.simulator.jlems.ExecutionPacer}
+ */
+public class ExecutionPacerTest
+{
+
+	private static final double TIMESTEP = 0.001;
+
+	/**
+	 * A pacer on a clock that only moves when told to, sleeping moves it by the time slept
+	 */
+	private static class ManualClockPacer extends ExecutionPacer
+	{
+		private long now = 0;
+
+		private void advance(long millis)
+		{
+			now += TimeUnit.MILLISECONDS.toNanos(millis);
+		}
+
+		@Override
+		protected long nanoTime()
+		{
+			return now;
+		}
+
+		@Override
+		protected void sleep(long nanos)
+		{
+			now += nanos;
+		}
+	}
+
+	/**
+	 * Runs a call to simulate, every step taking the given wall clock time
+	 * 
+	 * @param pacer
+	 * @param step
+	 *            the steps advanced before the call
+	 * @param stepMillis
+	 * @return the steps advanced by the call
+	 * @throws InterruptedException
+	 */
+	private int call(ManualClockPacer pacer, int step, long stepMillis) throws InterruptedException
+	{
+		pacer.startCall(step * TIMESTEP, TIMESTEP);
+		int steps = 0;
+		boolean advance = true;
+		while(advance)
+		{
+			pacer.advance(stepMillis);
+			steps++;
+			advance = pacer.stepDone((step + steps) * TIMESTEP, TIMESTEP);
+		}
+		pacer.endCall();
+		return steps;
+	}
+
+	@Test
+	public void testStep() throws InterruptedException
+	{
+		ManualClockPacer pacer = new ManualClockPacer();
+		Assert.assertEquals(1, call(pacer, 0, 5));
+		Assert.assertEquals(1, call(pacer, 1, 5));
+		Assert.assertEquals(2, pacer.getSteps());
+		// 2 steps in 10ms
+		Assert.assertEquals(200.0, pacer.getStepsPerSecond(), 1e-9);
+	}
+
+	@Test
+	public void testBudgeted() throws InterruptedException
+	{
+		ManualClockPacer pacer = new ManualClockPacer();
+		pacer.setMode(ExecutionMode.BUDGETED, 10, 1);
+		// steps until the 10ms budget is used up: 3, 6, 9, 12ms
+		Assert.assertEquals(4, call(pacer, 0, 3));
+		// a step longer than the budget still advances
+		Assert.assertEquals(1, call(pacer, 4, 15));
+		Assert.assertEquals(5, pacer.getSteps());
+		// 5 steps in 27ms spent in simulate
+		Assert.assertEquals(5 / 0.027, pacer.getStepsPerSecond(), 1e-6);
+		// nothing was spent outside simulate
+		Assert.assertEquals(5 * TIMESTEP / 0.027, pacer.getRealTimeRatio(), 1e-9);
+	}
+
+	@Test
+	public void testPaced() throws InterruptedException
+	{
+		ManualClockPacer pacer = new ManualClockPacer();
+		// a simulated millisecond per 2 real milliseconds
+		pacer.setMode(ExecutionMode.PACED, 20, 0.5);
+		int step = 0;
+		for(int i = 0; i < 10; i++)
+		{
+			// ahead of the schedule, the call waits for its step then publishes it
+			Assert.assertEquals(1, call(pacer, step, 0));
+			step++;
+		}
+		Assert.assertEquals(20, TimeUnit.NANOSECONDS.toMillis(pacer.nanoTime()));
+		Assert.assertEquals(0.5, pacer.getRealTimeRatio(), 1e-9);
+
+		// 7ms late, the call catches up the 3 steps due at 22, 24 and 26ms
+		pacer.advance(7);
+		Assert.assertEquals(3, call(pacer, step, 0));
+		step += 3;
+		// back on the schedule
+		Assert.assertEquals(1, call(pacer, step, 0));
+		Assert.assertEquals(28, TimeUnit.NANOSECONDS.toMillis(pacer.nanoTime()));
+		step++;
+
+		// too far behind to catch up, the schedule restarts from the current step
+		pacer.advance(100);
+		Assert.assertEquals(1, call(pacer, step, 0));
+		step++;
+		long restarted = pacer.nanoTime();
+		// the schedule counts from the step the call started at, the next one is due 2 steps later
+		Assert.assertEquals(1, call(pacer, step, 0));
+		Assert.assertEquals(4, TimeUnit.NANOSECONDS.toMillis(pacer.nanoTime() - restarted));
+	}
+}
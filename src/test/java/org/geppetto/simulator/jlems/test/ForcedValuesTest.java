@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.geppetto.core.common.GeppettoExecutionException;
+import org.geppetto.simulator.jlems.ForcedValues;
+import org.geppetto.simulator.jlems.StateHandle;
+import org.geppetto.simulator.jlems.StateHandleResolver;
+import org.junit.Test;
+import org.lemsml.jlems.api.interfaces.ILEMSStateInstance;
+
+/**
+ * Test for {@link org.geppetto.simulator.jlems.ForcedValues}
+ */
+public class ForcedValuesTest
+{
+
+	private static class RecordingHandle implements StateHandle
+	{
+		private String path;
+		private List<Double> values = new ArrayList<Double>();
+
+		private RecordingHandle(String path)
+		{
+			this.path = path;
+		}
+
+		@Override
+		public String getPath()
+		{
+			return path;
+		}
+
+		@Override
+		public double get()
+		{
+			return values.isEmpty() ? Double.NaN : values.get(values.size() - 1);
+		}
+
+		@Override
+		public void set(double value)
+		{
+			values.add(value);
+		}
+	}
+
+	@Test
+	public void testClampAndInject()
+	{
+		RecordingHandle v = new RecordingHandle("hhpop[0]/v");
+		RecordingHandle i = new RecordingHandle("hhpop[0]/i");
+		ForcedValues forced = new ForcedValues();
+		forced.add(v, -0.065, 3, Long.MAX_VALUE);
+		forced.add(i, 1e-9, 2, 2);
+		for(long step = 1; step <= 5; step++)
+		{
+			forced.apply(step);
+		}
+		Assert.assertEquals(3, v.values.size());
+		Assert.assertEquals(1, i.values.size());
+		Assert.assertEquals(1, forced.size());
+		Assert.assertSame(v, forced.getHandle("hhpop[0]/v"));
+
+		forced.release("hhpop[0]/v");
+		forced.apply(6);
+		Assert.assertEquals(3, v.values.size());
+		Assert.assertEquals(0, forced.size());
+	}
+
+	/**
+	 * A runtime instance with the methods the resolver looks up on the jLEMS instances
+	 */
+	public static class FakeInstance implements ILEMSStateInstance
+	{
+		private Map<String, FakeInstance> children = new HashMap<String, FakeInstance>();
+		private Map<String, Double> variables = new HashMap<String, Double>();
+
+		public FakeInstance getPathInstance(String path)
+		{
+			if(!children.containsKey(path))
+			{
+				throw new IllegalArgumentException("No instance " + path);
+			}
+			return children.get(path);
+		}
+
+		public double getVariable(String name)
+		{
+			if(!variables.containsKey(name))
+			{
+				throw new IllegalArgumentException("No variable " + name);
+			}
+			return variables.get(name);
+		}
+
+		public void setVariable(String name, double value)
+		{
+			variables.put(name, value);
+		}
+	}
+
+	/**
+	 * @param cells
+	 * @return a model with a v state in each of the given cells
+	 */
+	private StateHandleResolver createModel(String... cells)
+	{
+		FakeInstance root = new FakeInstance();
+		for(String cell : cells)
+		{
+			FakeInstance instance = new FakeInstance();
+			instance.setVariable("v", 0);
+			root.children.put(cell, instance);
+		}
+		return new StateHandleResolver(Collections.<ILEMSStateInstance> singletonList(root));
+	}
+
+	@Test
+	public void testRebindAllOrNothing() throws Exception
+	{
+		StateHandleResolver model = createModel("pop[0]", "pop[1]");
+		ForcedValues forced = new ForcedValues();
+		forced.add(model.resolve("pop[0]/v"), 1, 1, Long.MAX_VALUE);
+		forced.add(model.resolve("pop[1]/v"), 2, 1, Long.MAX_VALUE);
+
+		// pop[1] is missing from the rebuilt model, the forces stay on the current one
+		try
+		{
+			forced.resolve(createModel("pop[0]"));
+			Assert.fail("A missing state was resolved");
+		}
+		catch(GeppettoExecutionException e)
+		{
+		}
+		forced.apply(1);
+		Assert.assertEquals(1.0, model.resolve("pop[0]/v").get());
+		Assert.assertEquals(2.0, model.resolve("pop[1]/v").get());
+
+		StateHandleResolver rebuilt = createModel("pop[0]", "pop[1]");
+		forced.rebind(forced.resolve(rebuilt));
+		forced.apply(2);
+		Assert.assertEquals(1.0, rebuilt.resolve("pop[0]/v").get());
+		Assert.assertEquals(2.0, rebuilt.resolve("pop[1]/v").get());
+	}
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems.test;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.Assert;
+
+import org.geppetto.simulator.jlems.FrameDecoder;
+import org.geppetto.simulator.jlems.FrameEncoder;
+import org.junit.Test;
+
+/**
+ * Test for {@link org.geppetto.simulator.jlems.FrameEncoder}
+ */
+public class FrameEncoderTest
+{
+
+	@Test
+	public void testDeltaFrames()
+	{
+		FrameEncoder encoder = new FrameEncoder(false, true, 10);
+		FrameDecoder decoder = new FrameDecoder();
+
+		double[] values = new double[] { -0.065, 0.05, 0.6 };
+		ByteBuffer keyFrame = encoder.encode(0, 0, values);
+		int keyFrameSize = keyFrame.remaining();
+		decoder.decode(keyFrame);
+		Assert.assertEquals(-0.065, decoder.getValues()[0]);
+
+		for(int step = 1; step < 20; step++)
+		{
+			values[0] += 0.0001;
+			values[1] = -values[1];
+			ByteBuffer frame = encoder.encode(step, step * 0.00005, values);
+			if(step % 10 != 0)
+			{
+				Assert.assertTrue(frame.remaining() < keyFrameSize);
+			}
+			decoder.decode(frame);
+			Assert.assertEquals(step, decoder.getStep());
+			Assert.assertEquals(step * 0.00005, decoder.getTime());
+			for(int i = 0; i < values.length; i++)
+			{
+				Assert.assertEquals(values[i], decoder.getValues()[i]);
+			}
+		}
+	}
+
+	@Test
+	public void testFloatFrames()
+	{
+		FrameEncoder encoder = new FrameEncoder(true, true, 100);
+		FrameDecoder decoder = new FrameDecoder();
+		double[] values = new double[] { 1.5, -70 };
+		decoder.decode(encoder.encode(0, 0, values));
+		values[1] = -69.9;
+		decoder.decode(encoder.encode(1, 0.1, values));
+		Assert.assertEquals(1.5, decoder.getValues()[0]);
+		Assert.assertEquals((float) -69.9, (float) decoder.getValues()[1]);
+	}
+
+	@Test
+	public void testDeltaFrameSize()
+	{
+		// flags, step, time and count
+		int header = 1 + 8 + 8 + 4;
+		FrameEncoder encoder = new FrameEncoder(false, true, 100);
+		double[] values = new double[] { -0.065, 0.05, 0.6 };
+		Assert.assertEquals(header + 3 * 8, encoder.encode(0, 0, values).remaining());
+
+		// unchanged values take a byte, a sign change two
+		values[1] = -values[1];
+		ByteBuffer frame = encoder.encode(1, 0.1, values);
+		Assert.assertEquals(FrameEncoder.DELTA, frame.get(0) & FrameEncoder.DELTA);
+		Assert.assertEquals(header + 1 + 2 + 1, frame.remaining());
+
+		// a small change of a double is still smaller than its raw bits
+		values[0] += 0.0001;
+		Assert.assertTrue(encoder.encode(2, 0.2, values).remaining() < header + 8 + 1 + 1);
+
+		// values changing completely are written as a key frame
+		values = new double[] { 1e10, -3e-7, 42 };
+		frame = encoder.encode(3, 0.3, values);
+		Assert.assertEquals(0, frame.get(0) & FrameEncoder.DELTA);
+		Assert.assertEquals(header + 3 * 8, frame.remaining());
+	}
+}
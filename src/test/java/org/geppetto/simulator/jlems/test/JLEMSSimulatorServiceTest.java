@@ -32,18 +32,35 @@
  *******************************************************************************/
 package org.geppetto.simulator.jlems.test;
 
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
 import javax.measure.quantity.Quantity;
+import javax.measure.unit.SI;
 import javax.measure.unit.Unit;
 
 import junit.framework.Assert;
 
+import org.geppetto.core.common.GeppettoExecutionException;
 import org.geppetto.core.data.model.SimpleType;
 import org.geppetto.core.data.model.SimpleVariable;
 import org.geppetto.core.data.model.StructuredType;
 import org.geppetto.core.data.model.VariableList;
+import org.geppetto.core.model.IModel;
+import org.geppetto.core.model.ModelWrapper;
 import org.geppetto.core.model.data.DataModelFactory;
+import org.geppetto.core.model.runtime.AspectNode;
+import org.geppetto.core.model.runtime.EntityNode;
+import org.geppetto.core.simulation.ISimulatorCallbackListener;
 import org.geppetto.simulator.jlems.JLEMSSimulatorService;
+import org.geppetto.simulator.jlems.LEMSUnitResolver;
+import org.geppetto.simulator.jlems.LEMSUnitResolver.ResolvedUnit;
+import org.geppetto.simulator.jlems.WatchPattern;
+import org.geppetto.simulator.jlems.WatchPatternListener;
 import org.junit.Test;
+import org.lemsml.jlems.api.LEMSDocumentReader;
 import org.lemsml.jlems.api.LEMSRunConfiguration;
 import org.lemsml.jlems.api.StateIdentifier;
 import org.lemsml.jlems.api.StateRecord;
@@ -158,11 +175,175 @@ public class JLEMSSimulatorServiceTest
 		JLEMSSimulatorService sim=new JLEMSSimulatorService();
 		Unit<? extends Quantity> unit=sim.getUnitFromLEMSDimension("0,1,0,0,0,0,0");
 		Assert.assertEquals("m",unit.toString());
-		unit=sim.getUnitFromLEMSDimension("0,0,-3,0,0,0,0");
-		Assert.assertEquals("ms",unit.toString());
+		unit=sim.getUnitFromLEMSDimension("0,0,-1,0,0,0,0");
+		Assert.assertEquals("1/s",unit.toString());
 		// 1 kg·m2·s-3·A-1
-		//unit=sim.getUnitFromLEMSDimension("3,2,-3,-1,0,0,0");
-		//Assert.assertEquals("V",unit.alternate("V"));
+		unit=sim.getUnitFromLEMSDimension("1,2,-3,-1,0,0,0");
+		Assert.assertEquals("V",unit.toString());
+		unit=sim.getUnitFromLEMSDimension("0,0,0,1,0,0,0");
+		Assert.assertEquals("A",unit.toString());
+		// conductance density
+		unit=sim.getUnitFromLEMSDimension("-1,-4,3,2,0,0,0");
+		Assert.assertEquals(SI.SIEMENS.divide(SI.METRE.pow(2)),unit);
+	}
+
+	@Test
+	public void testResolveLEMSDimension()
+	{
+		LEMSUnitResolver resolver = new LEMSUnitResolver();
+		ResolvedUnit unit = resolver.resolve("1,2,-3,-1,0,0,0");
+		Assert.assertEquals("V", unit.getUnitString());
+		// jLEMS reports values in SI units
+		Assert.assertEquals("1.E0", unit.getScalingFactor());
+		Assert.assertSame(unit, resolver.resolve("1,2,-3,-1,0,0,0"));
+		unit = resolver.resolve("0,0,-1,0,0,0,0");
+		Assert.assertEquals("1/s", unit.getUnitString());
+		Assert.assertEquals("1.E0", unit.getScalingFactor());
+		Assert.assertEquals("1.E0", resolver.resolve("0,1,0,0,0,0,0").getScalingFactor());
+		Assert.assertNull(resolver.resolve("none"));
+		Assert.assertNull(resolver.resolve("0,1,0"));
+	}
+
+	/**
+	 * @param generator
+	 * @return the models initialize expects, with the LEMS document of the generator
+	 * @throws Exception
+	 */
+	private List<IModel> createModels(SyntheticModelGenerator generator) throws Exception
+	{
+		URL url = generator.createLEMSFile().toURI().toURL();
+		ModelWrapper model = new ModelWrapper(UUID.randomUUID().toString());
+		model.wrapModel("lems", new LEMSDocumentReader().readModel(url));
+		model.wrapModel("neuroml", generator.createNeuroMLDocument());
+		model.wrapModel("url", url);
+		List<IModel> models = new ArrayList<IModel>();
+		models.add(model);
+		return models;
+	}
+
+	@Test
+	public void testAsynchronousBuild() throws Exception
+	{
+		final List<Thread> notified = new ArrayList<Thread>();
+		JLEMSSimulatorService simulator = new JLEMSSimulatorService();
+		simulator.setAsynchronousBuild(true);
+		simulator.initialize(createModels(new SyntheticModelGenerator(1, 10, 2, 10)), new ISimulatorCallbackListener()
+		{
+			@Override
+			public void stateTreeUpdated() throws GeppettoExecutionException
+			{
+				notified.add(Thread.currentThread());
+			}
+		});
+		// races with the build, it has to be resolved against the new recorded states either way
+		WatchPattern pattern = simulator.addWatchPattern("*.v");
+
+		// waits for the build and publishes the model on this thread
+		Assert.assertFalse(simulator.getWatchableVariables().getVariables().isEmpty());
+		Assert.assertTrue(simulator.getModelReady().isDone());
+		Assert.assertEquals(10, pattern.getPaths().size());
+		Assert.assertEquals(1, notified.size());
+		Assert.assertSame(Thread.currentThread(), notified.get(0));
+
+		// published once
+		simulator.getForceableVariables();
+		Assert.assertEquals(1, notified.size());
+	}
+
+	@Test
+	public void testRebuildWhileSimulating() throws Exception
+	{
+		List<IModel> models = createModels(new SyntheticModelGenerator(1, 10, 2, 10));
+		EntityNode entity = new EntityNode("rebuild");
+		final AspectNode aspect = new AspectNode("electrical");
+		aspect.setModel(models.get(0));
+		entity.getAspects().add(aspect);
+		aspect.setParent(entity);
+
+		final JLEMSSimulatorService simulator = new JLEMSSimulatorService();
+		simulator.initialize(models, new TestListener());
+		simulator.addWatchPattern("*.v");
+		final List<Exception> failures = new ArrayList<Exception>();
+		Thread simulation = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					for(int step = 0; step < 500; step++)
+					{
+						simulator.simulate(null, aspect);
+					}
+				}
+				catch(GeppettoExecutionException e)
+				{
+					failures.add(e);
+				}
+			}
+		});
+		simulation.start();
+		// every rebuild swaps the simulator between two steps of the running loop
+		for(int rebuild = 1; rebuild <= 5; rebuild++)
+		{
+			simulator.setParameter("cell0.omega", (0.1 * rebuild) + "per_ms");
+			simulator.applyParameters();
+		}
+		simulation.join();
+		Assert.assertTrue(failures.toString(), failures.isEmpty());
+		Assert.assertEquals(1, simulator.getParameterOverrides().size());
+	}
+
+	/**
+	 * @param simulator
+	 * @return the values of the single recorded v, one per step
+	 */
+	private List<Double> recordV(JLEMSSimulatorService simulator)
+	{
+		final List<Double> values = new ArrayList<Double>();
+		simulator.addWatchPattern("*.v").setListener(new WatchPatternListener()
+		{
+			@Override
+			public void valuesUpdated(WatchPattern watchPattern, long step, double time, double[] updated)
+			{
+				values.add(updated[0]);
+			}
+		});
+		return values;
 	}
 
+	@Test
+	public void testParameterOverrideChangesOutput() throws Exception
+	{
+		SyntheticModelGenerator generator = new SyntheticModelGenerator(1, 1, 1, 1);
+		JLEMSSimulatorService original = new JLEMSSimulatorService();
+		original.initialize(createModels(generator), new TestListener());
+		List<Double> originalV = recordV(original);
+		JLEMSSimulatorService overridden = new JLEMSSimulatorService();
+		overridden.initialize(createModels(generator), new TestListener());
+		List<Double> overriddenV = recordV(overridden);
+
+		// 10ms, v is well away from its initial value
+		for(int step = 0; step < 1000; step++)
+		{
+			original.simulate(null, null);
+			overridden.simulate(null, null);
+		}
+		Assert.assertEquals(originalV, overriddenV);
+		double before = overriddenV.get(999);
+		Assert.assertTrue(Math.abs(before - (-0.065)) > 1e-3);
+
+		overridden.setParameter("cell0.omega", "0.5per_ms");
+		overridden.applyParameters();
+		for(int step = 0; step < 1000; step++)
+		{
+			original.simulate(null, null);
+			overridden.simulate(null, null);
+		}
+		Assert.assertEquals(2000, overriddenV.size());
+		// v goes on from its value instead of restarting from vRest
+		Assert.assertEquals(before, overriddenV.get(1000), 1e-4);
+		// and follows the new frequency
+		Assert.assertTrue(Math.abs(originalV.get(1999) - overriddenV.get(1999)) > 1e-4);
+	}
 }
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import junit.framework.Assert;
+
+import org.geppetto.simulator.jlems.LEMSParameterOverrides;
+import org.junit.Test;
+
+/**
+ * Test for {@link org.geppetto.simulator.jlems.LEMSParameterOverrides}
+ */
+public class LEMSParameterOverridesTest
+{
+
+	@Test
+	public void testParameterNames()
+	{
+		LEMSParameterOverrides overrides = new LEMSParameterOverrides();
+		overrides.set("cell0.omega", "0.2per_ms");
+		Assert.assertEquals("0.2per_ms", overrides.getOverrides().get("cell0.omega"));
+		try
+		{
+			overrides.set("omega", "0.2per_ms");
+			Assert.fail("A parameter without its component was accepted");
+		}
+		catch(IllegalArgumentException e)
+		{
+		}
+	}
+
+	@Test
+	public void testUnknownComponent() throws Exception
+	{
+		File lemsFile = new SyntheticModelGenerator(1, 1, 1, 1).createLEMSFile();
+		LEMSParameterOverrides overrides = new LEMSParameterOverrides();
+		overrides.set("cell7.omega", "0.2per_ms");
+		try
+		{
+			overrides.apply(lemsFile.toURI().toURL());
+			Assert.fail("An override of a missing component was applied");
+		}
+		catch(IllegalArgumentException e)
+		{
+			Assert.assertTrue(e.getMessage().contains("cell7"));
+		}
+	}
+
+	/**
+	 * @return a new empty directory
+	 * @throws IOException
+	 */
+	private File createDirectory() throws IOException
+	{
+		File directory = File.createTempFile("overrides", "");
+		directory.delete();
+		directory.mkdir();
+		directory.deleteOnExit();
+		return directory;
+	}
+
+	@Test
+	public void testSourceDirectoryUntouched() throws Exception
+	{
+		File directory = createDirectory();
+		File lemsFile = new File(directory, "model.xml");
+		new SyntheticModelGenerator(1, 1, 1, 1).createLEMSFile().renameTo(lemsFile);
+		lemsFile.deleteOnExit();
+		directory.setWritable(false);
+		try
+		{
+			LEMSParameterOverrides overrides = new LEMSParameterOverrides();
+			overrides.set("cell0.omega", "0.2per_ms");
+			overrides.apply(lemsFile.toURI().toURL());
+			Assert.assertEquals(1, directory.list().length);
+		}
+		finally
+		{
+			directory.setWritable(true);
+		}
+	}
+
+	@Test
+	public void testRelativeInclude() throws Exception
+	{
+		// the types and the simulation are included from a file next to the source
+		File directory = createDirectory();
+		File types = new File(directory, "types.xml");
+		new SyntheticModelGenerator(1, 1, 1, 1).createLEMSFile().renameTo(types);
+		types.deleteOnExit();
+		File lemsFile = new File(directory, "model.xml");
+		lemsFile.deleteOnExit();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(lemsFile), "UTF-8");
+		try
+		{
+			writer.write("<Lems>\n<Include file=\"types.xml\"/>\n<syntheticCell id=\"extra\" vRest=\"-60mV\" omega=\"0.1per_ms\"/>\n</Lems>\n");
+		}
+		finally
+		{
+			writer.close();
+		}
+		LEMSParameterOverrides overrides = new LEMSParameterOverrides();
+		overrides.set("extra.omega", "0.2per_ms");
+		// the copy is read from the temporary directory, jLEMS fails if the include is not found from there
+		overrides.apply(lemsFile.toURI().toURL());
+		Assert.assertEquals(2, directory.list().length);
+	}
+}
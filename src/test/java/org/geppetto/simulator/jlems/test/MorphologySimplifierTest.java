@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems.test;
+
+import java.math.BigInteger;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.geppetto.simulator.jlems.MorphologySimplifier;
+import org.geppetto.simulator.jlems.MorphologySimplifier.LevelOfDetail;
+import org.geppetto.simulator.jlems.MorphologySimplifier.SegmentGeometry;
+import org.geppetto.simulator.jlems.SegmentGroupIndex;
+import org.junit.Test;
+import org.neuroml.model.Member;
+import org.neuroml.model.Morphology;
+import org.neuroml.model.Point3DWithDiam;
+import org.neuroml.model.Segment;
+import org.neuroml.model.SegmentGroup;
+import org.neuroml.model.SegmentParent;
+
+/**
+ * Test for {@link org.geppetto.simulator.jlems.MorphologySimplifier}
+ */
+public class MorphologySimplifierTest
+{
+
+	private Morphology createMorphology(double diameter)
+	{
+		Morphology morphology = new Morphology();
+		// two cells in different documents can use the same id
+		morphology.setId("morphology");
+		Segment s = new Segment();
+		s.setId(BigInteger.ZERO);
+		s.setProximal(createPoint(0, diameter));
+		s.setDistal(createPoint(10, diameter));
+		morphology.getSegment().add(s);
+		return morphology;
+	}
+
+	private Point3DWithDiam createPoint(double x, double diameter)
+	{
+		return createPoint(x, 0, diameter);
+	}
+
+	private Point3DWithDiam createPoint(double x, double y, double diameter)
+	{
+		Point3DWithDiam point = new Point3DWithDiam();
+		point.setX(x);
+		point.setY(y);
+		point.setDiameter(diameter);
+		return point;
+	}
+
+	private Segment createSegment(Morphology morphology, int id, Integer parent, Point3DWithDiam proximal, Point3DWithDiam distal)
+	{
+		Segment s = new Segment();
+		s.setId(BigInteger.valueOf(id));
+		if(parent != null)
+		{
+			SegmentParent segmentParent = new SegmentParent();
+			segmentParent.setSegment(BigInteger.valueOf(parent));
+			s.setParent(segmentParent);
+		}
+		s.setProximal(proximal);
+		s.setDistal(distal);
+		morphology.getSegment().add(s);
+		return s;
+	}
+
+	/**
+	 * A soma along x followed by a dendrite: 1 and 2 are almost aligned (5.7 degrees), 3 turns by 90 degrees and branches into a thin 4, which turns
+	 * into 6, and 5. The soma and the dendrite are in different groups.
+	 * 
+	 * @return
+	 */
+	private Morphology createBranchedMorphology()
+	{
+		Morphology morphology = new Morphology();
+		morphology.setId("branched");
+		createSegment(morphology, 0, null, createPoint(0, 0, 10), createPoint(10, 0, 10));
+		createSegment(morphology, 1, 0, createPoint(10, 0, 2), createPoint(20, 0, 2));
+		createSegment(morphology, 2, 1, createPoint(20, 0, 2), createPoint(30, 1, 2));
+		createSegment(morphology, 3, 2, createPoint(30, 1, 2), createPoint(30, 11, 2));
+		createSegment(morphology, 4, 3, createPoint(30, 11, 0.2), createPoint(30, 21, 0.2));
+		createSegment(morphology, 5, 3, createPoint(30, 11, 1), createPoint(40, 11, 1));
+		createSegment(morphology, 6, 4, createPoint(30, 21, 1), createPoint(40, 21, 1));
+		SegmentGroup soma = new SegmentGroup();
+		soma.setId("soma_group");
+		SegmentGroup dendrites = new SegmentGroup();
+		dendrites.setId("dendrite_group");
+		for(Segment s : morphology.getSegment())
+		{
+			Member member = new Member();
+			member.setSegment(s.getId());
+			(s.getId().intValue() == 0 ? soma : dendrites).getMember().add(member);
+		}
+		morphology.getSegmentGroup().add(soma);
+		morphology.getSegmentGroup().add(dendrites);
+		return morphology;
+	}
+
+	private String getIds(List<SegmentGeometry> geometries)
+	{
+		StringBuilder ids = new StringBuilder();
+		for(SegmentGeometry g : geometries)
+		{
+			ids.append(ids.length() == 0 ? "" : ",").append(g.getId());
+		}
+		return ids.toString();
+	}
+
+	@Test
+	public void testMerged()
+	{
+		MorphologySimplifier simplifier = new MorphologySimplifier();
+		Morphology morphology = createBranchedMorphology();
+		SegmentGroupIndex groups = new SegmentGroupIndex(morphology);
+		Assert.assertEquals(7, simplifier.simplify(morphology, groups, LevelOfDetail.FULL).size());
+
+		// the default tolerance of 10 degrees merges 2 into 1, the soma is in another group and 3 turns, 4 and 5 branch, 6 turns
+		List<SegmentGeometry> merged = simplifier.simplify(morphology, groups, LevelOfDetail.MERGED);
+		Assert.assertEquals("0,1,3,4,5,6", getIds(merged));
+		SegmentGeometry dendrite = merged.get(1);
+		Assert.assertEquals("0", dendrite.getParentId());
+		Assert.assertEquals(10d, dendrite.getProximal().getX());
+		Assert.assertEquals(30d, dendrite.getDistal().getX());
+		Assert.assertEquals(1d, dendrite.getDistal().getY());
+		// the parent of a geometry following a merged one is the merged geometry
+		Assert.assertEquals("1", merged.get(2).getParentId());
+
+		// below the angle between 1 and 2 nothing is merged
+		simplifier.setMaxAngle(5);
+		Assert.assertEquals("0,1,2,3,4,5,6", getIds(simplifier.simplify(morphology, groups, LevelOfDetail.MERGED)));
+		simplifier.setMaxAngle(6);
+		Assert.assertEquals("0,1,3,4,5,6", getIds(simplifier.simplify(morphology, groups, LevelOfDetail.MERGED)));
+	}
+
+	@Test
+	public void testPruned()
+	{
+		MorphologySimplifier simplifier = new MorphologySimplifier();
+		Morphology morphology = createBranchedMorphology();
+		SegmentGroupIndex groups = new SegmentGroupIndex(morphology);
+
+		// 4 is thinner than the default 0.5, 6 goes with it although it is thicker
+		List<SegmentGeometry> pruned = simplifier.simplify(morphology, groups, LevelOfDetail.PRUNED);
+		Assert.assertEquals("0,1,3,5", getIds(pruned));
+		Assert.assertEquals(40d, pruned.get(3).getDistal().getX());
+
+		// 5 is as thick as the threshold and kept, the root is kept whatever its diameter
+		simplifier.setMinDiameter(1);
+		Assert.assertEquals("0,1,3,5", getIds(simplifier.simplify(morphology, groups, LevelOfDetail.PRUNED)));
+		simplifier.setMinDiameter(20);
+		Assert.assertEquals("0", getIds(simplifier.simplify(morphology, groups, LevelOfDetail.PRUNED)));
+	}
+
+	@Test
+	public void testSoma()
+	{
+		MorphologySimplifier simplifier = new MorphologySimplifier();
+		Morphology morphology = createBranchedMorphology();
+		List<SegmentGeometry> soma = simplifier.simplify(morphology, new SegmentGroupIndex(morphology), LevelOfDetail.SOMA);
+		Assert.assertEquals(1, soma.size());
+		Assert.assertEquals("0", soma.get(0).getId());
+		Assert.assertNull(soma.get(0).getParentId());
+		// a point as wide as the root segment
+		Assert.assertSame(soma.get(0).getProximal(), soma.get(0).getDistal());
+		Assert.assertEquals(10d, soma.get(0).getDistal().getDiameter());
+	}
+
+	@Test
+	public void testSameIdDifferentMorphologies()
+	{
+		MorphologySimplifier simplifier = new MorphologySimplifier();
+		Morphology first = createMorphology(1);
+		Morphology second = createMorphology(5);
+
+		List<SegmentGeometry> firstSoma = simplifier.simplify(first, new SegmentGroupIndex(first), LevelOfDetail.SOMA);
+		List<SegmentGeometry> secondSoma = simplifier.simplify(second, new SegmentGroupIndex(second), LevelOfDetail.SOMA);
+		Assert.assertEquals(1d, firstSoma.get(0).getDistal().getDiameter());
+		Assert.assertEquals(5d, secondSoma.get(0).getDistal().getDiameter());
+
+		// the same morphology object is only simplified once
+		Assert.assertSame(firstSoma, simplifier.simplify(first, new SegmentGroupIndex(first), LevelOfDetail.SOMA));
+
+		List<SegmentGeometry> secondFull = simplifier.simplify(second, new SegmentGroupIndex(second), LevelOfDetail.FULL);
+		Assert.assertEquals(5d, secondFull.get(0).getProximal().getDiameter());
+	}
+}
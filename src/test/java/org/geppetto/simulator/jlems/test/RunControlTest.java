@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems.test;
+
+import junit.framework.Assert;
+
+import org.geppetto.simulator.jlems.RunControl;
+import org.junit.Test;
+
+/**
+ * Test for {@link org.geppetto.simulator.jlems.RunControl}
+ */
+public class RunControlTest
+{
+
+	@Test
+	public void testCancel() throws InterruptedException
+	{
+		RunControl control = new RunControl();
+		control.startCall();
+		Assert.assertTrue(control.checkpoint());
+		control.cancel();
+		Assert.assertFalse(control.checkpoint());
+		control.endCall();
+		control.startCall();
+		Assert.assertTrue(control.checkpoint());
+		control.endCall();
+	}
+
+	@Test
+	public void testCancelWhileIdle() throws InterruptedException
+	{
+		RunControl control = new RunControl();
+		control.cancel();
+		control.startCall();
+		// the next call is not cut short by a cancellation made before it started
+		Assert.assertTrue(control.checkpoint());
+		control.endCall();
+	}
+
+	@Test
+	public void testPauseAndResume() throws InterruptedException
+	{
+		final RunControl control = new RunControl();
+		final boolean[] passed = new boolean[1];
+		control.pause();
+		Thread stepping = new Thread()
+		{
+			public void run()
+			{
+				try
+				{
+					passed[0] = control.checkpoint();
+				}
+				catch(InterruptedException e)
+				{
+					passed[0] = false;
+				}
+			}
+		};
+		stepping.start();
+		while(!control.isPaused())
+		{
+			Thread.sleep(1);
+		}
+		Assert.assertTrue(stepping.isAlive());
+		control.resume();
+		stepping.join(5000);
+		Assert.assertFalse(stepping.isAlive());
+		Assert.assertTrue(passed[0]);
+	}
+}
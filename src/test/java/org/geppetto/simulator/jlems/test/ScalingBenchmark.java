@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems.test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.geppetto.core.model.IModel;
+import org.geppetto.core.model.ModelWrapper;
+import org.geppetto.core.model.runtime.AspectNode;
+import org.geppetto.core.model.runtime.AspectSubTreeNode.AspectTreeType;
+import org.geppetto.core.model.runtime.EntityNode;
+import org.geppetto.simulator.jlems.JLEMSSimulatorService;
+import org.neuroml.model.Base;
+import org.neuroml.model.Cell;
+import org.neuroml.model.NeuroMLDocument;
+
+/**
+ * Macro benchmark: runs initialize, populateVisualTree and a number of simulate steps on synthetic models of growing size and prints the time of every
+ * phase and the peak heap as CSV. Every size is run with a growing number of watched variables, from none, which only measures jLEMS, to all the recorded
+ * states, one line per run.
+ * 
+ * Arguments: [steps] [populations,cellsPerPopulation,segmentsPerMorphology,recordedStates]...
+ */
+public class ScalingBenchmark
+{
+
+	private static final String[] DEFAULT_SIZES = { "1,1,10,1", "1,10,10,10", "1,100,10,100", "10,100,10,100", "10,100,100,1000", "10,1000,10,1000" };
+
+	/**
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		int steps = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		String[] sizes = DEFAULT_SIZES;
+		if(args.length > 1)
+		{
+			sizes = new String[args.length - 1];
+			System.arraycopy(args, 1, sizes, 0, sizes.length);
+		}
+		System.out
+				.println("populations,cellsPerPopulation,segmentsPerMorphology,recordedStates,watchedVariables,initializeMs,populateVisualTreeMs,simulateMs,stepsPerSecond,peakHeapMB");
+		for(String size : sizes)
+		{
+			String[] n = size.split(",");
+			int recordedStates = Integer.parseInt(n[3]);
+			// 0, 1, 10... and all the recorded states
+			for(int watched = 0; watched < recordedStates; watched = watched == 0 ? 1 : watched * 10)
+			{
+				run(Integer.parseInt(n[0]), Integer.parseInt(n[1]), Integer.parseInt(n[2]), recordedStates, watched, steps);
+			}
+			run(Integer.parseInt(n[0]), Integer.parseInt(n[1]), Integer.parseInt(n[2]), recordedStates, recordedStates, steps);
+		}
+	}
+
+	private static void run(int populations, int cellsPerPopulation, int segmentsPerMorphology, int recordedStates, int watchedVariables, int steps)
+			throws Exception
+	{
+		SyntheticModelGenerator generator = new SyntheticModelGenerator(populations, cellsPerPopulation, segmentsPerMorphology, recordedStates);
+		NeuroMLDocument neuroml = generator.createNeuroMLDocument();
+		ModelWrapper model = new ModelWrapper(UUID.randomUUID().toString());
+		model.wrapModel("lems", generator.createLEMSDocument());
+		model.wrapModel("neuroml", neuroml);
+		// what the model interpreter would have discovered
+		Map<String, Base> discoveredComponents = new HashMap<String, Base>();
+		for(Cell cell : neuroml.getCell())
+		{
+			discoveredComponents.put(cell.getId(), cell);
+		}
+		model.wrapModel("discoveredComponents", discoveredComponents);
+		model.wrapModel("entitiesMapping", new HashMap<String, EntityNode>());
+
+		EntityNode entity = new EntityNode("benchmark");
+		AspectNode aspect = new AspectNode("electrical");
+		aspect.setModel(model);
+		entity.getAspects().add(aspect);
+		aspect.setParent(entity);
+
+		List<IModel> models = new ArrayList<IModel>();
+		models.add(model);
+		JLEMSSimulatorService simulator = new JLEMSSimulatorService();
+
+		System.gc();
+		resetPeakHeap();
+		long start = System.nanoTime();
+		simulator.initialize(models, new TestListener());
+		long initialized = System.nanoTime();
+		simulator.populateVisualTree(aspect);
+		if(watchedVariables > 0)
+		{
+			// the paths the simulator gives the recorded states in the watch tree of an entity without children
+			List<String> watchList = new ArrayList<String>();
+			String watchTree = aspect.getSubTree(AspectTreeType.WATCH_TREE).getInstancePath();
+			for(int r = 0; r < watchedVariables; r++)
+			{
+				watchList.add(watchTree + "." + generator.getRecordedStatePath(r).replace("/", "."));
+			}
+			simulator.addWatchVariables(watchList);
+			simulator.startWatch();
+		}
+		long populated = System.nanoTime();
+		for(int step = 0; step < steps; step++)
+		{
+			simulator.simulate(null, aspect);
+		}
+		long simulated = System.nanoTime();
+
+		System.out.println(populations + "," + cellsPerPopulation + "," + segmentsPerMorphology + "," + recordedStates + "," + watchedVariables + ","
+				+ (initialized - start) / 1000000 + ","
+				+ (populated - initialized) / 1000000 + "," + (simulated - populated) / 1000000 + "," + (long) (steps * 1e9 / (simulated - populated)) + ","
+				+ getPeakHeap() / (1024 * 1024));
+	}
+
+	private static void resetPeakHeap()
+	{
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+		{
+			if(pool.getType() == MemoryType.HEAP)
+			{
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	private static long getPeakHeap()
+	{
+		long peak = 0;
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+		{
+			if(pool.getType() == MemoryType.HEAP)
+			{
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+}
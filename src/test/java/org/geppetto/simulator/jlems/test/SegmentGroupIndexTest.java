@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems.test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.geppetto.core.model.ModelInterpreterException;
+import org.geppetto.core.model.runtime.AspectSubTreeNode;
+import org.geppetto.simulator.jlems.PopulateVisualTreeVisitor;
+import org.geppetto.simulator.jlems.SegmentDensities;
+import org.geppetto.simulator.jlems.SegmentGroupIndex;
+import org.junit.Test;
+import org.neuroml.model.BiophysicalProperties;
+import org.neuroml.model.Cell;
+import org.neuroml.model.ChannelDensity;
+import org.neuroml.model.Include;
+import org.neuroml.model.Member;
+import org.neuroml.model.MembraneProperties;
+import org.neuroml.model.Morphology;
+import org.neuroml.model.NeuroMLDocument;
+import org.neuroml.model.Point3DWithDiam;
+import org.neuroml.model.Segment;
+import org.neuroml.model.SegmentGroup;
+
+/**
+ * Test for {@link org.geppetto.simulator.jlems.SegmentGroupIndex} and the {@link org.geppetto.simulator.jlems.SegmentDensities} built from it
+ */
+public class SegmentGroupIndexTest
+{
+
+	private Morphology createMorphology()
+	{
+		Morphology morphology = new Morphology();
+		morphology.setId("morphology");
+		for(int i = 0; i < 3; i++)
+		{
+			Segment s = new Segment();
+			s.setId(BigInteger.valueOf(i));
+			morphology.getSegment().add(s);
+		}
+		// groups are declared before the groups they include
+		morphology.getSegmentGroup().add(createGroup("all", new int[] {}, "soma_group", "dendrite_group"));
+		morphology.getSegmentGroup().add(createGroup("soma_group", new int[] { 0 }));
+		morphology.getSegmentGroup().add(createGroup("dendrite_group", new int[] { 1 }, "distal"));
+		morphology.getSegmentGroup().add(createGroup("distal", new int[] { 2 }));
+		// include cycle
+		morphology.getSegmentGroup().add(createGroup("a", new int[] { 0 }, "b"));
+		morphology.getSegmentGroup().add(createGroup("b", new int[] { 1 }, "a"));
+		return morphology;
+	}
+
+	private SegmentGroup createGroup(String id, int[] members, String... includes)
+	{
+		SegmentGroup group = new SegmentGroup();
+		group.setId(id);
+		for(int m : members)
+		{
+			Member member = new Member();
+			member.setSegment(BigInteger.valueOf(m));
+			group.getMember().add(member);
+		}
+		for(String i : includes)
+		{
+			Include include = new Include();
+			include.setSegmentGroup(i);
+			group.getInclude().add(include);
+		}
+		return group;
+	}
+
+	@Test
+	public void testTransitiveIncludes()
+	{
+		SegmentGroupIndex index = new SegmentGroupIndex(createMorphology());
+		Assert.assertEquals(3, index.getSegments("all").cardinality());
+		Assert.assertEquals(2, index.getSegments("dendrite_group").cardinality());
+		Assert.assertTrue(index.isInGroup("2", "all"));
+		Assert.assertFalse(index.isInGroup("2", "soma_group"));
+		Assert.assertEquals(Arrays.asList("all", "dendrite_group", "distal"), index.getGroups("2"));
+	}
+
+	@Test
+	public void testIncludeCycle()
+	{
+		SegmentGroupIndex index = new SegmentGroupIndex(createMorphology());
+		Assert.assertTrue(index.isInGroup("1", "a"));
+		Assert.assertTrue(index.isInGroup("0", "b"));
+		Assert.assertFalse(index.inSameGroups("0", "1"));
+		Assert.assertTrue(index.getGroups("3").isEmpty());
+	}
+
+	private Point3DWithDiam createPoint(double x)
+	{
+		Point3DWithDiam point = new Point3DWithDiam();
+		point.setX(x);
+		point.setDiameter(1);
+		return point;
+	}
+
+	private NeuroMLDocument createDocument(String... condDensities)
+	{
+		MembraneProperties membrane = new MembraneProperties();
+		String[] groups = { "all", "dendrite_group" };
+		for(int i = 0; i < condDensities.length; i++)
+		{
+			ChannelDensity density = new ChannelDensity();
+			density.setId("na" + i);
+			density.setIonChannel("naChans");
+			density.setSegmentGroup(groups[i]);
+			density.setCondDensity(condDensities[i]);
+			membrane.getChannelDensity().add(density);
+		}
+		BiophysicalProperties biophysics = new BiophysicalProperties();
+		biophysics.setMembraneProperties(membrane);
+		Cell cell = new Cell();
+		cell.setId("cell");
+		Morphology morphology = createMorphology();
+		for(Segment s : morphology.getSegment())
+		{
+			// the visual objects need a geometry
+			s.setProximal(createPoint(s.getId().intValue()));
+			s.setDistal(createPoint(s.getId().intValue() + 1));
+		}
+		cell.setMorphology(morphology);
+		cell.setBiophysicalProperties(biophysics);
+		NeuroMLDocument neuroml = new NeuroMLDocument();
+		neuroml.getCell().add(cell);
+		return neuroml;
+	}
+
+	@Test
+	public void testDensityUnits() throws ModelInterpreterException
+	{
+		PopulateVisualTreeVisitor visitor = new PopulateVisualTreeVisitor();
+		visitor.createNodesFromNeuroMLDocument(new AspectSubTreeNode("visualization"), createDocument("120 mS_per_cm2", "500 S_per_m2"));
+		SegmentDensities densities = visitor.getSegmentDensities("cell");
+		Assert.assertEquals("mS_per_cm2", densities.getUnit("naChans"));
+		double[] na = densities.getDensities("naChans");
+		Assert.assertEquals(120, na[0], 1e-9);
+		Assert.assertEquals(50, na[1], 1e-9);
+		Assert.assertEquals(50, na[2], 1e-9);
+	}
+
+	@Test(expected = ModelInterpreterException.class)
+	public void testMismatchedDensityUnits() throws ModelInterpreterException
+	{
+		new PopulateVisualTreeVisitor().createNodesFromNeuroMLDocument(new AspectSubTreeNode("visualization"), createDocument("120 mS_per_cm2", "5 mV"));
+	}
+}
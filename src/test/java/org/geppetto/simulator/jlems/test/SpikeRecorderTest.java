@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.geppetto.simulator.jlems.MemoryBudget;
+import org.geppetto.simulator.jlems.SpikeListener;
+import org.geppetto.simulator.jlems.SpikeRecorder;
+import org.junit.Test;
+
+/**
+ * Test for {@link org.geppetto.simulator.jlems.SpikeRecorder}
+ */
+public class SpikeRecorderTest
+{
+
+	@Test
+	public void testThresholdCrossings()
+	{
+		SpikeRecorder recorder = new SpikeRecorder("pop[*].v", 0);
+		recorder.reset(2);
+		recorder.detect(0.0, new double[] { 10, -70 });
+		recorder.detect(0.1, new double[] { -60, -50 });
+		recorder.detect(0.2, new double[] { -50, 5 });
+		recorder.detect(0.3, new double[] { 20, 30 });
+		recorder.detect(0.4, new double[] { -70, -70 });
+		recorder.detect(0.5, new double[] { -70, 0 });
+
+		Assert.assertEquals(3, recorder.getEventCount());
+		int[] cells = recorder.getCells();
+		double[] times = recorder.getTimes();
+		Assert.assertEquals(1, cells[0]);
+		Assert.assertEquals(0.2, times[0]);
+		Assert.assertEquals(0, cells[1]);
+		Assert.assertEquals(0.3, times[1]);
+		Assert.assertEquals(1, cells[2]);
+		Assert.assertEquals(0.5, times[2]);
+
+		double[][] raster = recorder.getRaster();
+		Assert.assertEquals(1, raster[0].length);
+		Assert.assertEquals(2, raster[1].length);
+		Assert.assertEquals(0.5, raster[1][1]);
+	}
+
+	@Test
+	public void testListenerReceivesEveryStep()
+	{
+		SpikeRecorder recorder = new SpikeRecorder("pop[*].spiking", SpikeRecorder.SPIKING);
+		recorder.reset(3);
+		final List<Double> times = new ArrayList<Double>();
+		final List<int[]> cells = new ArrayList<int[]>();
+		recorder.setListener(new SpikeListener()
+		{
+			@Override
+			public void spikesDetected(SpikeRecorder spikeRecorder, double time, int[] spiking)
+			{
+				times.add(time);
+				cells.add(spiking);
+			}
+		});
+		recorder.detect(0.0, new double[] { 0, 0, 0 });
+		recorder.detect(0.1, new double[] { 1, 0, 1 });
+		recorder.detect(0.2, new double[] { 1, 0, 0 });
+		recorder.detect(0.3, new double[] { 0, 1, 0 });
+
+		// no call for the step without events
+		Assert.assertEquals(2, times.size());
+		Assert.assertEquals(0.1, times.get(0));
+		Assert.assertEquals(2, cells.get(0).length);
+		Assert.assertEquals(2, cells.get(0)[1]);
+		Assert.assertEquals(0.3, times.get(1));
+		Assert.assertEquals(1, cells.get(1)[0]);
+	}
+
+	@Test
+	public void testNotKeepingEvents()
+	{
+		SpikeRecorder recorder = new SpikeRecorder("pop[*].spiking", SpikeRecorder.SPIKING);
+		recorder.reset(2);
+		final List<Double> times = new ArrayList<Double>();
+		recorder.setListener(new SpikeListener()
+		{
+			@Override
+			public void spikesDetected(SpikeRecorder spikeRecorder, double time, int[] spiking)
+			{
+				times.add(time);
+			}
+		});
+		recorder.detect(0.0, new double[] { 0, 0 });
+		recorder.detect(0.1, new double[] { 1, 1 });
+		MemoryBudget budget = new MemoryBudget();
+		budget.setSpikeEvents(recorder.getEventCount());
+		Assert.assertEquals(2 * MemoryBudget.BYTES_PER_SPIKE_EVENT, budget.getEstimatedBytes());
+
+		// e.g. over the memory cap, the kept events stay and the new ones only go to the listener
+		recorder.setKeepingEvents(false);
+		recorder.detect(0.2, new double[] { 0, 0 });
+		recorder.detect(0.3, new double[] { 1, 0 });
+		Assert.assertEquals(2, recorder.getEventCount());
+		Assert.assertEquals(0.1, recorder.getTimes()[1]);
+		Assert.assertEquals(2, times.size());
+		Assert.assertEquals(0.3, times.get(1));
+	}
+}
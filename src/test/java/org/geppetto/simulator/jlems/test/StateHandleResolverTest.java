@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems.test;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import junit.framework.Assert;
+
+import org.geppetto.core.common.GeppettoExecutionException;
+import org.geppetto.core.model.IModel;
+import org.geppetto.core.model.ModelWrapper;
+import org.geppetto.simulator.jlems.JLEMSSimulatorService;
+import org.geppetto.simulator.jlems.LEMSModelBuilder;
+import org.geppetto.simulator.jlems.StateHandle;
+import org.geppetto.simulator.jlems.StateHandleResolver;
+import org.geppetto.simulator.jlems.WatchPattern;
+import org.geppetto.simulator.jlems.WatchPatternListener;
+import org.junit.Test;
+import org.lemsml.jlems.api.LEMSDocumentReader;
+
+/**
+ * Test for {@link org.geppetto.simulator.jlems.StateHandleResolver} on the runtime instances of jLEMS, it fails if jLEMS no longer has the methods
+ * the handles use
+ */
+public class StateHandleResolverTest
+{
+
+	// the single HH cell example
+	static final String HH_MODEL = "https://raw.github.com/openworm/org.geppetto.samples/master/LEMS/SingleComponentHH/LEMS_NML2_Ex5_DetCell.xml";
+
+	@Test
+	public void testReadAndSetState() throws Exception
+	{
+		LEMSModelBuilder builder = new LEMSModelBuilder();
+		builder.build(new LEMSDocumentReader().readModel(new URL(HH_MODEL)));
+		StateHandleResolver resolver = new StateHandleResolver(builder.getStateInstances());
+		Assert.assertTrue(resolver.isSupported());
+
+		StateHandle v = resolver.resolve("hhpop[0].v");
+		v.set(-0.07);
+		Assert.assertEquals(-0.07, v.get(), 0);
+		double m = resolver.resolve("hhpop[0]/bioPhys1/membraneProperties/naChans/na/m/q").get();
+		Assert.assertTrue(m > 0 && m < 1);
+		try
+		{
+			resolver.resolve("hhpop[0]/noSuchState");
+			Assert.fail("A missing state was resolved");
+		}
+		catch(GeppettoExecutionException e)
+		{
+		}
+	}
+
+	@Test
+	public void testClampRecorded() throws Exception
+	{
+		URL url = new URL(HH_MODEL);
+		ModelWrapper model = new ModelWrapper(UUID.randomUUID().toString());
+		model.wrapModel("lems", new LEMSDocumentReader().readModel(url));
+		model.wrapModel("url", url);
+		List<IModel> models = new ArrayList<IModel>();
+		models.add(model);
+		JLEMSSimulatorService simulator = new JLEMSSimulatorService();
+		simulator.initialize(models, new TestListener());
+		final List<Double> v = new ArrayList<Double>();
+		simulator.addWatchPattern("*.v").setListener(new WatchPatternListener()
+		{
+			@Override
+			public void valuesUpdated(WatchPattern watchPattern, long step, double time, double[] values)
+			{
+				v.add(values[0]);
+			}
+		});
+
+		for(int step = 0; step < 100; step++)
+		{
+			simulator.simulate(null, null);
+		}
+		simulator.clampVariable("hhpop[0].v", -0.07);
+		for(int step = 0; step < 100; step++)
+		{
+			simulator.simulate(null, null);
+		}
+		simulator.releaseVariable("hhpop[0].v");
+		for(int step = 0; step < 100; step++)
+		{
+			simulator.simulate(null, null);
+		}
+
+		// set before every step, the recorded value only moves by what a single step adds
+		for(int step = 100; step < 200; step++)
+		{
+			Assert.assertEquals(-0.07, v.get(step), 1e-4);
+		}
+		// released, v goes back towards rest
+		Assert.assertTrue(Math.abs(v.get(299) - (-0.07)) > 1e-4);
+	}
+}
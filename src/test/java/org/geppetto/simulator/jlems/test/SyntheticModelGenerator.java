@@ -0,0 +1,288 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigInteger;
+
+import org.lemsml.jlems.api.LEMSDocumentReader;
+import org.lemsml.jlems.api.interfaces.ILEMSDocument;
+import org.lemsml.jlems.core.sim.ContentError;
+import org.neuroml.model.Cell;
+import org.neuroml.model.Member;
+import org.neuroml.model.Morphology;
+import org.neuroml.model.Network;
+import org.neuroml.model.NeuroMLDocument;
+import org.neuroml.model.Point3DWithDiam;
+import org.neuroml.model.Population;
+import org.neuroml.model.PopulationTypes;
+import org.neuroml.model.Segment;
+import org.neuroml.model.SegmentGroup;
+import org.neuroml.model.SegmentParent;
+
+/**
+ * Generates self contained models of a given size, without fetching anything: a LEMS document with populations of a simple oscillating cell and the
+ * matching NeuroML document with one morphology per population. Population i is called pop{i} and its cells cell{i}.
+ */
+public class SyntheticModelGenerator
+{
+
+	private int populations;
+	private int cellsPerPopulation;
+	private int segmentsPerMorphology;
+	private int recordedStates;
+
+	/**
+	 * @param populations
+	 * @param cellsPerPopulation
+	 * @param segmentsPerMorphology
+	 * @param recordedStates
+	 *            the number of v states recorded, spread over the populations
+	 */
+	public SyntheticModelGenerator(int populations, int cellsPerPopulation, int segmentsPerMorphology, int recordedStates)
+	{
+		this.populations = populations;
+		this.cellsPerPopulation = cellsPerPopulation;
+		this.segmentsPerMorphology = segmentsPerMorphology;
+		this.recordedStates = Math.min(recordedStates, populations * cellsPerPopulation);
+	}
+
+	/**
+	 * @return a NeuroML document with a cell and a population per population of the LEMS model
+	 */
+	public NeuroMLDocument createNeuroMLDocument()
+	{
+		NeuroMLDocument neuroml = new NeuroMLDocument();
+		Network network = new Network();
+		network.setId("net1");
+		for(int p = 0; p < populations; p++)
+		{
+			Cell cell = new Cell();
+			cell.setId("cell" + p);
+			cell.setMorphology(createMorphology("morphology" + p));
+			neuroml.getCell().add(cell);
+
+			Population population = new Population();
+			population.setId("pop" + p);
+			population.setComponent(cell.getId());
+			population.setType(PopulationTypes.POPULATION);
+			population.setSize(BigInteger.valueOf(cellsPerPopulation));
+			network.getPopulation().add(population);
+		}
+		neuroml.getNetwork().add(network);
+		return neuroml;
+	}
+
+	/**
+	 * @param id
+	 * @return an unbranched morphology, a soma followed by a dendrite of segmentsPerMorphology - 1 segments
+	 */
+	private Morphology createMorphology(String id)
+	{
+		Morphology morphology = new Morphology();
+		morphology.setId(id);
+		SegmentGroup soma = new SegmentGroup();
+		soma.setId("soma_group");
+		SegmentGroup dendrites = new SegmentGroup();
+		dendrites.setId("dendrite_group");
+		for(int s = 0; s < segmentsPerMorphology; s++)
+		{
+			Segment segment = new Segment();
+			segment.setId(BigInteger.valueOf(s));
+			segment.setName(s == 0 ? "soma" : "dend" + s);
+			if(s > 0)
+			{
+				SegmentParent parent = new SegmentParent();
+				parent.setSegment(BigInteger.valueOf(s - 1));
+				segment.setParent(parent);
+			}
+			double diameter = s == 0 ? 10 : 1;
+			segment.setProximal(createPoint(s * 10, diameter));
+			segment.setDistal(createPoint((s + 1) * 10, diameter));
+			morphology.getSegment().add(segment);
+
+			Member member = new Member();
+			member.setSegment(segment.getId());
+			(s == 0 ? soma : dendrites).getMember().add(member);
+		}
+		morphology.getSegmentGroup().add(soma);
+		morphology.getSegmentGroup().add(dendrites);
+		return morphology;
+	}
+
+	private Point3DWithDiam createPoint(double x, double diameter)
+	{
+		Point3DWithDiam point = new Point3DWithDiam();
+		point.setX(x);
+		point.setY(0);
+		point.setZ(0);
+		point.setDiameter(diameter);
+		return point;
+	}
+
+	/**
+	 * @return a LEMS model defining its own component types, it does not include the NeuroML core types
+	 */
+	public String createLEMSModel()
+	{
+		StringBuilder lems = new StringBuilder();
+		lems.append("<Lems>\n");
+		lems.append("<Target component=\"sim1\"/>\n");
+		lems.append("<Dimension name=\"voltage\" m=\"1\" l=\"2\" t=\"-3\" i=\"-1\"/>\n");
+		lems.append("<Dimension name=\"time\" t=\"1\"/>\n");
+		lems.append("<Dimension name=\"per_time\" t=\"-1\"/>\n");
+		lems.append("<Unit symbol=\"mV\" dimension=\"voltage\" power=\"-3\"/>\n");
+		lems.append("<Unit symbol=\"ms\" dimension=\"time\" power=\"-3\"/>\n");
+		lems.append("<Unit symbol=\"per_ms\" dimension=\"per_time\" power=\"3\"/>\n");
+
+		// a harmonic oscillator around a resting potential, cheap but with non trivial dynamics
+		lems.append("<ComponentType name=\"syntheticCell\">\n");
+		lems.append("  <Parameter name=\"vRest\" dimension=\"voltage\"/>\n");
+		lems.append("  <Parameter name=\"omega\" dimension=\"per_time\"/>\n");
+		lems.append("  <Exposure name=\"v\" dimension=\"voltage\"/>\n");
+		lems.append("  <Dynamics>\n");
+		lems.append("    <StateVariable name=\"v\" dimension=\"voltage\" exposure=\"v\"/>\n");
+		lems.append("    <StateVariable name=\"w\" dimension=\"voltage\"/>\n");
+		lems.append("    <TimeDerivative variable=\"v\" value=\"omega * w\"/>\n");
+		lems.append("    <TimeDerivative variable=\"w\" value=\"omega * (vRest - v)\"/>\n");
+		lems.append("    <OnStart><StateAssignment variable=\"v\" value=\"vRest\"/><StateAssignment variable=\"w\" value=\"vRest / 10\"/></OnStart>\n");
+		lems.append("  </Dynamics>\n");
+		lems.append("</ComponentType>\n");
+		lems.append("<ComponentType name=\"syntheticPopulation\">\n");
+		lems.append("  <ComponentReference name=\"component\" type=\"syntheticCell\"/>\n");
+		lems.append("  <Parameter name=\"size\" dimension=\"none\"/>\n");
+		lems.append("  <Structure><MultiInstantiate component=\"component\" number=\"size\"/></Structure>\n");
+		lems.append("</ComponentType>\n");
+		lems.append("<ComponentType name=\"syntheticNetwork\">\n");
+		lems.append("  <Children name=\"populations\" type=\"syntheticPopulation\"/>\n");
+		lems.append("</ComponentType>\n");
+
+		// the same simulation and display types as the NeuroML core types
+		lems.append("<ComponentType name=\"Line\">\n");
+		lems.append("  <Parameter name=\"scale\" dimension=\"*\"/>\n");
+		lems.append("  <Parameter name=\"timeScale\" dimension=\"*\"/>\n");
+		lems.append("  <Text name=\"color\"/>\n");
+		lems.append("  <Path name=\"quantity\"/>\n");
+		lems.append("  <Simulation><Record quantity=\"quantity\" timeScale=\"timeScale\" scale=\"scale\" color=\"color\"/></Simulation>\n");
+		lems.append("</ComponentType>\n");
+		lems.append("<ComponentType name=\"Display\">\n");
+		lems.append("  <Parameter name=\"xmin\" dimension=\"*\"/>\n");
+		lems.append("  <Parameter name=\"xmax\" dimension=\"*\"/>\n");
+		lems.append("  <Parameter name=\"ymin\" dimension=\"*\"/>\n");
+		lems.append("  <Parameter name=\"ymax\" dimension=\"*\"/>\n");
+		lems.append("  <Parameter name=\"timeScale\" dimension=\"*\"/>\n");
+		lems.append("  <Text name=\"title\"/>\n");
+		lems.append("  <Children name=\"lines\" type=\"Line\"/>\n");
+		lems.append("  <Simulation><DataDisplay title=\"title\" dataRegion=\"xmin,xmax,ymin,ymax\"/></Simulation>\n");
+		lems.append("</ComponentType>\n");
+		lems.append("<ComponentType name=\"Simulation\">\n");
+		lems.append("  <Parameter name=\"length\" dimension=\"time\"/>\n");
+		lems.append("  <Parameter name=\"step\" dimension=\"time\"/>\n");
+		lems.append("  <ComponentReference name=\"target\" type=\"syntheticNetwork\"/>\n");
+		lems.append("  <Children name=\"displays\" type=\"Display\"/>\n");
+		lems.append("  <Dynamics><StateVariable name=\"t\" dimension=\"time\"/></Dynamics>\n");
+		lems.append("  <Simulation><Run component=\"target\" variable=\"t\" increment=\"step\" total=\"length\"/></Simulation>\n");
+		lems.append("</ComponentType>\n");
+
+		for(int p = 0; p < populations; p++)
+		{
+			lems.append("<syntheticCell id=\"cell" + p + "\" vRest=\"-65mV\" omega=\"" + (0.1 + 0.01 * p) + "per_ms\"/>\n");
+		}
+		lems.append("<syntheticNetwork id=\"net1\">\n");
+		for(int p = 0; p < populations; p++)
+		{
+			lems.append("  <syntheticPopulation id=\"pop" + p + "\" component=\"cell" + p + "\" size=\"" + cellsPerPopulation + "\"/>\n");
+		}
+		lems.append("</syntheticNetwork>\n");
+
+		lems.append("<Simulation id=\"sim1\" length=\"1000ms\" step=\"0.01ms\" target=\"net1\">\n");
+		lems.append("  <Display id=\"d1\" title=\"v\" timeScale=\"1ms\" xmin=\"0\" xmax=\"1000\" ymin=\"-80\" ymax=\"-50\">\n");
+		for(int r = 0; r < recordedStates; r++)
+		{
+			lems.append("    <Line id=\"l" + r + "\" quantity=\"" + getRecordedStatePath(r) + "\" scale=\"1mV\" timeScale=\"1ms\" color=\"#000000\"/>\n");
+		}
+		lems.append("  </Display>\n");
+		lems.append("</Simulation>\n");
+		lems.append("</Lems>\n");
+		return lems.toString();
+	}
+
+	/**
+	 * @param r
+	 *            the index of the recorded state, from 0 to recordedStates - 1
+	 * @return the LEMS path of the recorded state, e.g. pop0[0]/v
+	 */
+	public String getRecordedStatePath(int r)
+	{
+		// spread over the populations first
+		return "pop" + (r % populations) + "[" + (r / populations) + "]/v";
+	}
+
+	/**
+	 * Writes the LEMS model to a temporary file
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public File createLEMSFile() throws IOException
+	{
+		File file = File.createTempFile("synthetic", ".xml");
+		file.deleteOnExit();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try
+		{
+			writer.write(createLEMSModel());
+		}
+		finally
+		{
+			writer.close();
+		}
+		return file;
+	}
+
+	/**
+	 * Writes the LEMS model to a temporary file and reads it back
+	 * 
+	 * @return
+	 * @throws IOException
+	 * @throws ContentError
+	 */
+	public ILEMSDocument createLEMSDocument() throws IOException, ContentError
+	{
+		return new LEMSDocumentReader().readModel(createLEMSFile().toURI().toURL());
+	}
+}
@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems.test;
+
+import junit.framework.Assert;
+
+import org.geppetto.simulator.jlems.TieredHistoryStore;
+import org.junit.Test;
+
+/**
+ * Test for {@link org.geppetto.simulator.jlems.TieredHistoryStore}
+ */
+public class TieredHistoryStoreTest
+{
+
+	@Test
+	public void testReadAcrossSpilledBlocks() throws Exception
+	{
+		TieredHistoryStore store = new TieredHistoryStore(100, 2);
+		try
+		{
+			int v = store.register("hhcell.electrical.SimulationTree.hhpop[0].v");
+			int q = store.register("hhcell.electrical.SimulationTree.hhpop[0].q");
+			Assert.assertEquals(v, store.register("hhcell.electrical.SimulationTree.hhpop[0].v"));
+			for(int step = 0; step < 1050; step++)
+			{
+				store.add(v, step * 0.01, -65 + step);
+				if(step % 2 == 0)
+				{
+					store.add(q, step * 0.01, step);
+				}
+			}
+			Assert.assertEquals(1050, store.getSampleCount(v));
+			Assert.assertEquals(50 + 25, store.getMemorySampleCount());
+			Assert.assertTrue(store.getSpilledBytes() > 0);
+
+			// from the first spilled block to the memory tier
+			double[][] window = store.read(v, 0.95, 10.2);
+			Assert.assertEquals(1020 - 95, window[0].length);
+			Assert.assertEquals(-65 + 95.0, window[1][0]);
+			Assert.assertEquals(-65 + 1019.0, window[1][window[1].length - 1]);
+
+			window = store.read(q, 3.0, 3.1);
+			Assert.assertEquals(5, window[0].length);
+			Assert.assertEquals(300.0, window[1][0]);
+
+			Assert.assertEquals(0, store.read(v, 20, 30)[0].length);
+		}
+		finally
+		{
+			store.close();
+		}
+	}
+
+	@Test
+	public void testMemoryGrowsWithSamples() throws Exception
+	{
+		TieredHistoryStore store = new TieredHistoryStore(4096, 1);
+		try
+		{
+			for(int i = 0; i < 1000; i++)
+			{
+				store.register("pop[" + i + "].v");
+			}
+			// registering does not allocate a block per variable
+			Assert.assertEquals(0, store.getAllocatedSampleCount());
+
+			for(int step = 0; step < 20; step++)
+			{
+				store.add(0, step, step);
+			}
+			store.add(1, 0, 0);
+			Assert.assertEquals(32 + 16, store.getAllocatedSampleCount());
+
+			// once a full block is spilled the variable keeps its block, reading it caches one more
+			for(int step = 20; step < 4096; step++)
+			{
+				store.add(0, step, step);
+			}
+			Assert.assertEquals(4096 + 16, store.getAllocatedSampleCount());
+			store.read(0, 0, 10);
+			Assert.assertEquals(2 * 4096 + 16, store.getAllocatedSampleCount());
+		}
+		finally
+		{
+			store.close();
+		}
+	}
+}
@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems.test;
+
+import junit.framework.Assert;
+
+import org.geppetto.simulator.jlems.TimeWindow;
+import org.junit.Test;
+
+/**
+ * Test for {@link org.geppetto.simulator.jlems.TimeWindow}
+ */
+public class TimeWindowTest
+{
+
+	@Test
+	public void testDownsampleKeepsPeaks()
+	{
+		int n = 10000;
+		double[] times = new double[n];
+		double[] values = new double[n];
+		for(int i = 0; i < n; i++)
+		{
+			times[i] = i * 0.01;
+			values[i] = -65;
+		}
+		values[4321] = 30;
+		values[8765] = -90;
+
+		TimeWindow window = new TimeWindow("hhpop[0].v", times, values).downsample(100);
+		Assert.assertEquals(100, window.getTimes().length);
+		boolean peak = false;
+		boolean trough = false;
+		for(int i = 0; i < window.getTimes().length; i++)
+		{
+			if(i > 0)
+			{
+				Assert.assertTrue(window.getTimes()[i] >= window.getTimes()[i - 1]);
+			}
+			peak |= window.getValues()[i] == 30;
+			trough |= window.getValues()[i] == -90;
+		}
+		Assert.assertTrue(peak);
+		Assert.assertTrue(trough);
+
+		TimeWindow small = new TimeWindow("hhpop[0].v", new double[] { 0, 1 }, new double[] { 2, 3 });
+		Assert.assertSame(small, small.downsample(100));
+	}
+}
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.geppetto.simulator.jlems.RecordedStates;
+import org.geppetto.simulator.jlems.WatchPattern;
+import org.geppetto.simulator.jlems.WatchPatternListener;
+import org.junit.Test;
+import org.lemsml.jlems.api.LEMSResultsContainer;
+import org.lemsml.jlems.api.LEMSRunConfiguration;
+import org.lemsml.jlems.api.StateIdentifier;
+import org.lemsml.jlems.api.StateRecord;
+import org.lemsml.jlems.api.interfaces.ILEMSRunConfiguration;
+
+/**
+ * Test for {@link org.geppetto.simulator.jlems.WatchPattern}
+ */
+public class WatchPatternTest
+{
+
+	@Test
+	public void testAnyIndex()
+	{
+		WatchPattern pattern = new WatchPattern("hhpop[*].v");
+		Assert.assertTrue(pattern.matches("hhpop[0].v"));
+		Assert.assertTrue(pattern.matches("hhpop[42].v"));
+		Assert.assertFalse(pattern.matches("hhpop[0].bioPhys1.v"));
+		Assert.assertFalse(pattern.matches("otherpop[0].v"));
+	}
+
+	@Test
+	public void testRangeAndWildcard()
+	{
+		WatchPattern pattern = new WatchPattern("hhpop[0:99].bioPhys1.*.q");
+		Assert.assertTrue(pattern.matches("hhpop[0].bioPhys1.membraneProperties.naChans.na.m.q"));
+		Assert.assertTrue(pattern.matches("hhpop[99].bioPhys1.membraneProperties.kChans.k.n.q"));
+		Assert.assertFalse(pattern.matches("hhpop[100].bioPhys1.membraneProperties.kChans.k.n.q"));
+		Assert.assertFalse(pattern.matches("hhpop[0].bioPhys1.q"));
+		Assert.assertFalse(pattern.matches("hhpop[0].v"));
+	}
+
+	@Test
+	public void testListenerReceivesEveryUpdate()
+	{
+		ILEMSRunConfiguration runConfig = new LEMSRunConfiguration(0.01, 0.3);
+		runConfig.addStateRecord(new StateRecord(new StateIdentifier("hhpop[0]/v")));
+		runConfig.addStateRecord(new StateRecord(new StateIdentifier("hhpop[1]/v")));
+		runConfig.addStateRecord(new StateRecord(new StateIdentifier("hhpop[0]/spiking")));
+		RecordedStates recordedStates = new RecordedStates(runConfig);
+
+		WatchPattern pattern = new WatchPattern("hhpop[*].v");
+		pattern.resolve(recordedStates);
+		final List<Long> steps = new ArrayList<Long>();
+		pattern.setListener(new WatchPatternListener()
+		{
+			@Override
+			public void valuesUpdated(WatchPattern watchPattern, long step, double time, double[] values)
+			{
+				Assert.assertEquals(2, values.length);
+				steps.add(step);
+			}
+		});
+		for(long step = 1; step <= 3; step++)
+		{
+			pattern.update(step, step * 0.01, new LEMSResultsContainer(), recordedStates);
+		}
+		Assert.assertEquals(3, steps.size());
+		Assert.assertEquals(3L, (long) steps.get(2));
+		// states missing from the results read as NaN
+		Assert.assertTrue(Double.isNaN(pattern.getValues()[1]));
+	}
+}
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011, 2013 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.simulator.jlems.test;
+
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.geppetto.core.model.quantities.PhysicalQuantity;
+import org.geppetto.core.model.runtime.VariableNode;
+import org.geppetto.simulator.jlems.MemoryBudget;
+import org.geppetto.simulator.jlems.MemoryBudget.OverflowPolicy;
+import org.geppetto.simulator.jlems.WatchRateGroups;
+import org.junit.Test;
+
+/**
+ * Test for {@link org.geppetto.simulator.jlems.WatchRateGroups}
+ */
+public class WatchRateGroupsTest
+{
+
+	private WatchRateGroups createGroups(int nodes, int samples)
+	{
+		WatchRateGroups groups = new WatchRateGroups();
+		for(int n = 0; n < nodes; n++)
+		{
+			VariableNode node = new VariableNode("v");
+			for(int s = 0; s < samples; s++)
+			{
+				node.addPhysicalQuantity(new PhysicalQuantity());
+			}
+			groups.add(1, "pop[" + n + "].v", node, n, null);
+		}
+		groups.setSampleCount(nodes * samples);
+		return groups;
+	}
+
+	@Test
+	public void testDecimateOverCap()
+	{
+		WatchRateGroups groups = createGroups(2, 100);
+		MemoryBudget budget = new MemoryBudget();
+		budget.setCap(60 * MemoryBudget.BYTES_PER_SAMPLE, OverflowPolicy.DECIMATE);
+
+		Assert.assertTrue(groups.decimate(budget));
+		Assert.assertFalse(budget.isExceeded());
+		// 200 samples halved twice
+		Assert.assertEquals(50, groups.getSampleCount());
+		Assert.assertEquals(4, groups.getDecimation());
+	}
+
+	@Test
+	public void testHistoryNotOverCap()
+	{
+		WatchRateGroups groups = createGroups(2, 100);
+		MemoryBudget budget = new MemoryBudget();
+		budget.setCap(1000 * MemoryBudget.BYTES_PER_SAMPLE, OverflowPolicy.DECIMATE);
+		// the visualization tree alone is over the cap
+		budget.setVisualObjects(1000 * MemoryBudget.BYTES_PER_SAMPLE / MemoryBudget.BYTES_PER_VISUAL_OBJECT + 1);
+
+		for(int step = 0; step < 64; step++)
+		{
+			Assert.assertFalse(groups.decimate(budget));
+		}
+		Assert.assertEquals(200, groups.getSampleCount());
+		Assert.assertEquals(1, groups.getDecimation());
+	}
+
+	@Test
+	public void testNothingLeftToDrop()
+	{
+		WatchRateGroups groups = createGroups(3, 1);
+		for(int step = 0; step < 64; step++)
+		{
+			Assert.assertFalse(groups.decimate());
+		}
+		Assert.assertEquals(1, groups.getDecimation());
+		Assert.assertEquals(3, groups.getSampleCount());
+	}
+
+	@Test
+	public void testSetDivisor()
+	{
+		WatchRateGroups groups = createGroups(3, 2);
+		Assert.assertTrue(groups.setDivisor("pop[1].v", 4));
+		// the node moved to the slower group, the others kept their place
+		Assert.assertEquals(Arrays.asList("pop[0].v", "pop[2].v", "pop[1].v"), groups.getPaths());
+		Assert.assertEquals(3, groups.size());
+		Assert.assertEquals(6, groups.getSampleCount());
+		Assert.assertTrue(groups.setDivisor("pop[1].v", 1));
+		Assert.assertEquals(Arrays.asList("pop[0].v", "pop[2].v", "pop[1].v"), groups.getPaths());
+		Assert.assertFalse(groups.setDivisor("pop[3].v", 2));
+		Assert.assertEquals(3, groups.size());
+	}
+}